@@ -0,0 +1,114 @@
+package nu.nerd.vc;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+// ----------------------------------------------------------------------------
+/**
+ * Regression guard for allocation on the scan hot path.
+ *
+ * Each case scans a population of stand-in vehicles from
+ * {@link ScanBenchmark} repeatedly in its steady state, measures the bytes
+ * allocated by the scanning thread, and counts the calls that would allocate
+ * on the real server (see {@link Stubs#getAllocatingCalls()}). The argument
+ * arrays allocated by the proxied stand-ins are subtracted from the measured
+ * bytes (see {@link Stubs#getHarnessBytes(long[])}), leaving the bytes
+ * allocated by the plugin. The guard exits with status 1 if the plugin
+ * allocates more than {@link #MAX_BYTES_PER_VEHICLE} in any case, which
+ * tolerates measurement noise but not a single object per vehicle, or makes
+ * any allocating server call. Occupied vehicles, exempt or not, are checked
+ * from the {@link PassengerCache} without calling getPassengers().
+ *
+ * The guard runs in the verify phase of the benchmark module's build, and can
+ * also be run after packaging the benchmarks:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar nu.nerd.vc.AllocationGuard
+ * </pre>
+ */
+public class AllocationGuard {
+    // ------------------------------------------------------------------------
+    /**
+     * Run all cases.
+     *
+     * @param args ignored.
+     */
+    public static void main(String[] args) {
+        boolean passed = true;
+        passed &= check(ScanBenchmark.Mix.EMPTY);
+        passed &= check(ScanBenchmark.Mix.PLAYERS);
+        passed &= check(ScanBenchmark.Mix.VILLAGERS);
+        passed &= check(ScanBenchmark.Mix.REALISTIC);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Measure allocation when scanning a population in its steady state.
+     *
+     * @param mix the passenger mix.
+     * @return true if the case passed.
+     */
+    static boolean check(ScanBenchmark.Mix mix) {
+        ScanBenchmark bench = new ScanBenchmark();
+        bench.vehicles = VEHICLES;
+        bench.mix = mix;
+        bench.setup();
+
+        // Give the JIT time to compile the hot path.
+        for (int i = 0; i < WARMUP_SCANS; ++i) {
+            bench.scan();
+        }
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long startCalls = Stubs.getAllocatingCalls();
+        long[] startArity = Stubs.getCallsByArity();
+        long startBytes = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_SCANS; ++i) {
+            bench.scan();
+        }
+        long bytes = threads.getCurrentThreadAllocatedBytes() - startBytes;
+        long calls = Stubs.getAllocatingCalls() - startCalls;
+        long harnessBytes = Stubs.getHarnessBytes(startArity);
+        long pluginBytes = bytes - harnessBytes;
+
+        long checked = (long) VEHICLES * MEASURED_SCANS;
+        double pluginBytesPerVehicle = (double) pluginBytes / checked;
+        boolean passed = pluginBytesPerVehicle <= MAX_BYTES_PER_VEHICLE && calls == 0;
+        System.out.printf("%-9s %8.3f bytes/vehicle (%8.3f measured - %8.3f harness, max %.2f), "
+                          + "%5.3f allocating server calls/vehicle (max 0): %s%n",
+                          mix, pluginBytesPerVehicle, (double) bytes / checked,
+                          (double) harnessBytes / checked, MAX_BYTES_PER_VEHICLE,
+                          (double) calls / checked, passed ? "ok" : "FAIL");
+        return passed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The maximum bytes allocated by the plugin per checked vehicle.
+     *
+     * Measurement picks up stray allocations by the JVM, such as JIT
+     * compilation on the scanning thread, and the harness estimate is only
+     * accurate to a few bytes per call; both are small and rare. An allocation
+     * by the plugin on every vehicle is at least 16 bytes, and even one per
+     * hundred vehicles exceeds this threshold.
+     */
+    private static final double MAX_BYTES_PER_VEHICLE = 0.1;
+
+    /**
+     * Number of vehicles in each population.
+     */
+    private static final int VEHICLES = 10000;
+
+    /**
+     * Number of unmeasured scans before measuring.
+     */
+    private static final int WARMUP_SCANS = 500;
+
+    /**
+     * Number of measured scans.
+     */
+    private static final int MEASURED_SCANS = 50;
+} // class AllocationGuard
@@ -0,0 +1,314 @@
+package nu.nerd.vc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.World;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Vehicle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of the vehicle scan and decision hot path.
+ *
+ * The per-vehicle benchmarks check one vehicle per operation, cycling through
+ * the whole population, so the reported time is in ns/vehicle. The scan
+ * benchmark checks every vehicle once per operation. Run with "-prof gc" to
+ * report gc.alloc.rate.norm, which is bytes allocated per vehicle or per scan
+ * respectively.
+ *
+ * The population is checked once during setup, so that the benchmarks measure
+ * the steady state in which eligible vehicles are already tagged.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class ScanBenchmark {
+    /**
+     * Passenger mixes of the vehicle population.
+     */
+    public enum Mix {
+        /**
+         * 60% empty, 20% villagers, 5% named villagers, 10% players and 5%
+         * pigs. One in ten occupied vehicles has a second passenger.
+         */
+        REALISTIC,
+
+        /**
+         * All vehicles empty.
+         */
+        EMPTY,
+
+        /**
+         * All vehicles occupied by villagers, half of them named.
+         */
+        VILLAGERS,
+
+        /**
+         * All vehicles occupied by players, so exempt and never tagged.
+         */
+        PLAYERS
+    }
+
+    /**
+     * Number of vehicles.
+     */
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int vehicles;
+
+    /**
+     * Passenger mix.
+     */
+    @Param({ "REALISTIC" })
+    public Mix mix;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create the vehicle population and configure the plugin as it is on
+     * nerd.nu servers.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        VehicleControl.CONFIG = createConfiguration();
+        VehicleControl.STATE.clear();
+        VehicleControl.PASSENGERS = new PassengerCache();
+
+        _task = new VehicleScanTask();
+        _vehicles = createVehicles(vehicles, mix, new Random(vehicles));
+
+        ArrayList<Entity> passengers = new ArrayList<>();
+        for (Vehicle vehicle : _vehicles) {
+            passengers.addAll(vehicle.getPassengers());
+        }
+        _passengers = passengers.toArray(new Entity[0]);
+
+        _now = System.currentTimeMillis();
+        for (Vehicle vehicle : _vehicles) {
+            _task.checkVehicle(vehicle, _now);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create the configuration snapshot used on nerd.nu servers.
+     *
+     * @return the configuration.
+     */
+    static Configuration createConfiguration() {
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.set("vehicles.drop-item", false);
+        config.set("vehicles.break-empty", true);
+        config.set("vehicles.break-empty-seconds", 300);
+        config.set("vehicles.break-with-passenger", true);
+        config.set("vehicles.break-with-passenger-seconds", 900);
+        config.set("vehicles.break-with-passenger-types", Arrays.asList(EntityType.VILLAGER.name()));
+        config.set("vehicles.exempt-with-named-passenger", true);
+        config.set("vehicles.exempt-with-named-passenger-types", Arrays.asList(EntityType.VILLAGER.name()));
+        return new Configuration(config);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Check one vehicle; ns/op is ns/vehicle.
+     */
+    @Benchmark
+    public void checkVehicle() {
+        _task.checkVehicle(nextVehicle(), _now);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Check every vehicle once; each op is a full scan.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void scan() {
+        long now = _now;
+        for (Vehicle vehicle : _vehicles) {
+            _task.checkVehicle(vehicle, now);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Evaluate isBreakable() for one passenger.
+     *
+     * @return the result, to defeat dead code elimination.
+     */
+    @Benchmark
+    public boolean isBreakable() {
+        return _passengers.length != 0 && _task.isBreakable(VehicleControl.CONFIG, nextPassenger());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Evaluate hasExemptedTypeAndName() for one passenger.
+     *
+     * @return the result, to defeat dead code elimination.
+     */
+    @Benchmark
+    public boolean hasExemptedTypeAndName() {
+        return _passengers.length != 0 && _task.hasExemptedTypeAndName(VehicleControl.CONFIG, nextPassenger());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a population of vehicles, half boats and half carts, with the
+     * specified passenger mix.
+     *
+     * @param count  the number of vehicles.
+     * @param mix    the passenger mix.
+     * @param random the source of randomness.
+     * @return the vehicles.
+     */
+    static Vehicle[] createVehicles(int count, Mix mix, Random random) {
+        World world = Stubs.world("world");
+        Vehicle[] vehicles = new Vehicle[count];
+        for (int i = 0; i < count; ++i) {
+            List<Entity> passengers = new ArrayList<>();
+            int roll = random.nextInt(100);
+            switch (mix) {
+            case REALISTIC:
+                if (roll >= 60) {
+                    passengers.add(randomPassenger(roll, random));
+                    if (random.nextInt(10) == 0) {
+                        passengers.add(randomPassenger(60 + random.nextInt(40), random));
+                    }
+                }
+                break;
+            case VILLAGERS:
+                passengers.add(Stubs.passenger(EntityType.VILLAGER, randomUUID(random),
+                                               (roll < 50) ? "Villager " + i : null));
+                break;
+            case PLAYERS:
+                passengers.add(Stubs.passenger(EntityType.PLAYER, randomUUID(random), null));
+                break;
+            case EMPTY:
+            default:
+                break;
+            }
+
+            double x = random.nextInt(20000) - 10000 + 0.5;
+            double z = random.nextInt(20000) - 10000 + 0.5;
+            vehicles[i] = Stubs.vehicle((i & 1) == 0, randomUUID(random), world, x, 64, z, List.copyOf(passengers));
+        }
+        return vehicles;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a passenger according to the REALISTIC mix.
+     *
+     * @param roll   a number in [60, 100) selecting the passenger type.
+     * @param random the source of randomness.
+     * @return the passenger.
+     */
+    static Entity randomPassenger(int roll, Random random) {
+        if (roll < 80) {
+            return Stubs.passenger(EntityType.VILLAGER, randomUUID(random), null);
+        } else if (roll < 85) {
+            return Stubs.passenger(EntityType.VILLAGER, randomUUID(random), "Librarian");
+        } else if (roll < 95) {
+            return Stubs.passenger(EntityType.PLAYER, randomUUID(random), null);
+        } else {
+            return Stubs.passenger(EntityType.PIG, randomUUID(random), null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a random (version 4 style) UUID.
+     *
+     * @param random the source of randomness.
+     * @return the UUID.
+     */
+    static UUID randomUUID(Random random) {
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the next vehicle, cycling through the population.
+     *
+     * @return the next vehicle.
+     */
+    private Vehicle nextVehicle() {
+        Vehicle vehicle = _vehicles[_cursor];
+        if (++_cursor == _vehicles.length) {
+            _cursor = 0;
+        }
+        return vehicle;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the next passenger, cycling through all passengers.
+     *
+     * @return the next passenger.
+     */
+    private Entity nextPassenger() {
+        Entity passenger = _passengers[_passengerCursor];
+        if (++_passengerCursor == _passengers.length) {
+            _passengerCursor = 0;
+        }
+        return passenger;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The task whose per-vehicle checks are measured.
+     */
+    private VehicleScanTask _task;
+
+    // ------------------------------------------------------------------------
+    /**
+     * The stand-in vehicles, in the order they are checked.
+     */
+    private Vehicle[] _vehicles;
+
+    // ------------------------------------------------------------------------
+    /**
+     * The passengers of all vehicles, in the order they are checked.
+     */
+    private Entity[] _passengers;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Index of the next vehicle returned by nextVehicle().
+     */
+    private int _cursor;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Index of the next passenger returned by nextPassenger().
+     */
+    private int _passengerCursor;
+
+    // ------------------------------------------------------------------------
+    /**
+     * The time passed to checkVehicle(), fixed at setup so every invocation
+     * checks the same state.
+     */
+    private long _now;
+} // class ScanBenchmark
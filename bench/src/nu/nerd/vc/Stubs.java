@@ -0,0 +1,524 @@
+package nu.nerd.vc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.entity.Boat;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Vehicle;
+import org.bukkit.entity.minecart.RideableMinecart;
+import org.bukkit.persistence.PersistentDataContainer;
+
+// ----------------------------------------------------------------------------
+/**
+ * Lightweight in-memory stand-ins for the Bukkit World and Entity types used
+ * by the scan hot path.
+ *
+ * The stand-ins are dynamic proxies, so that they implement the full Bukkit
+ * interfaces without a running server. Methods that the plugin doesn't use
+ * return zero, false or null. Accessors return stored values without
+ * allocating, so that allocation measured by the benchmarks is attributable
+ * to the plugin. Note that the real server allocates a new passenger list on
+ * every call to getPassengers(), and a new Location on every call to
+ * getLocation() without arguments, which the stand-ins do not; those calls
+ * are counted instead, by {@link #getAllocatingCalls()}.
+ *
+ * A proxied call with arguments allocates an Object[] to pass them to the
+ * invocation handler. So that this allocation is the same however the JIT
+ * compiles the call, every handler publishes its argument array, which
+ * defeats escape analysis, and counts calls by their number of arguments.
+ * {@link #getHarnessBytes(long[])} converts those counts to bytes, so that
+ * the allocation of the stand-ins can be subtracted from measurements.
+ */
+public class Stubs {
+    // ------------------------------------------------------------------------
+    /**
+     * Create a stand-in World.
+     *
+     * @param name the world name.
+     * @return the World.
+     */
+    public static World world(String name) {
+        UUID uid = UUID.nameUUIDFromBytes(name.getBytes());
+        return (World) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { World.class },
+            (proxy, method, args) -> {
+                recordCall(args);
+                return switch (method.getName()) {
+                case "getName" -> name;
+                case "getUID" -> uid;
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                case "toString" -> "World(" + name + ")";
+                default -> defaultValue(method.getReturnType());
+                };
+            });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a stand-in boat or rideable minecart.
+     *
+     * @param boat       true for a boat, false for a minecart.
+     * @param uuid       the entity's UUID.
+     * @param world      the world.
+     * @param x          the X coordinate.
+     * @param y          the Y coordinate.
+     * @param z          the Z coordinate.
+     * @param passengers the passengers.
+     * @return the vehicle.
+     */
+    public static Vehicle vehicle(boolean boat, UUID uuid, World world, double x, double y, double z,
+                                  List<Entity> passengers) {
+        EntityHandler handler = new EntityHandler(boat ? EntityType.OAK_BOAT : EntityType.MINECART,
+                                                  uuid, world, x, y, z, passengers, null);
+        Class<?> type = boat ? Boat.class : RideableMinecart.class;
+        return (Vehicle) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a stand-in passenger entity.
+     *
+     * @param type       the entity type.
+     * @param uuid       the entity's UUID.
+     * @param customName the custom name, or null.
+     * @return the entity.
+     */
+    public static Entity passenger(EntityType type, UUID uuid, String customName) {
+        EntityHandler handler = new EntityHandler(type, uuid, null, 0, 0, 0, List.of(), customName);
+        return (Entity) Proxy.newProxyInstance(Stubs.class.getClassLoader(),
+                                               new Class<?>[] { type.getEntityClass() }, handler);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a stand-in entity has been removed.
+     *
+     * @param entity the stand-in entity.
+     * @return true if removed.
+     */
+    public static boolean isRemoved(Entity entity) {
+        return ((EntityHandler) Proxy.getInvocationHandler(entity))._removed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of calls to stand-in methods that allocate on the
+     * real server: getPassengers() and getLocation() without arguments.
+     *
+     * @return the number of calls since the stand-ins were loaded.
+     */
+    public static long getAllocatingCalls() {
+        return _allocatingCalls;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of proxied calls made so far with each number of
+     * arguments.
+     *
+     * @return a copy of the counts, indexed by number of arguments.
+     */
+    public static long[] getCallsByArity() {
+        return _callsByArity.clone();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the bytes allocated by the proxies to pass the arguments of the
+     * calls made since a previous call to {@link #getCallsByArity()}.
+     *
+     * The bytes allocated per call of each arity are calibrated, the first
+     * time this is called, by calling a proxy whose handler does nothing but
+     * publish its arguments.
+     *
+     * @param since the counts returned by getCallsByArity() earlier.
+     * @return the bytes allocated by the proxies.
+     */
+    public static long getHarnessBytes(long[] since) {
+        if (_bytesByArity == null) {
+            _bytesByArity = calibrate();
+        }
+        long bytes = 0;
+        for (int arity = 1; arity < MAX_ARITY; ++arity) {
+            bytes += (_callsByArity[arity] - since[arity]) * _bytesByArity[arity];
+        }
+        return bytes;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Measure the bytes allocated by a proxied call with each number of
+     * arguments, up to 3.
+     *
+     * @return the bytes per call, indexed by number of arguments.
+     */
+    static long[] calibrate() {
+        Calls calls = (Calls) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { Calls.class },
+            (proxy, method, args) -> {
+                _lastArgs = args;
+                return null;
+            });
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        Object arg = Stubs.class;
+        long[] bytes = new long[MAX_ARITY];
+        for (int pass = 0; pass < 2; ++pass) {
+            // The first pass warms up the calls.
+            int count = (pass == 0) ? 200000 : 1000000;
+            long start = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < count; ++i) {
+                calls.call(arg);
+            }
+            bytes[1] = Math.round((threads.getCurrentThreadAllocatedBytes() - start) / (double) count);
+            start = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < count; ++i) {
+                calls.call(arg, arg);
+            }
+            bytes[2] = Math.round((threads.getCurrentThreadAllocatedBytes() - start) / (double) count);
+            start = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < count; ++i) {
+                calls.call(arg, arg, arg);
+            }
+            bytes[3] = Math.round((threads.getCurrentThreadAllocatedBytes() - start) / (double) count);
+        }
+        return bytes;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count a proxied call and publish its argument array, so that the JIT
+     * can't eliminate it.
+     *
+     * @param args the arguments, or null if none.
+     */
+    static void recordCall(Object[] args) {
+        if (args != null) {
+            ++_callsByArity[Math.min(args.length, MAX_ARITY - 1)];
+            _lastArgs = args;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Methods with each number of arguments, used to calibrate the
+     * allocation of proxied calls.
+     */
+    interface Calls {
+        /**
+         * A call with one argument.
+         *
+         * @param a the argument.
+         */
+        void call(Object a);
+
+        /**
+         * A call with two arguments.
+         *
+         * @param a the first argument.
+         * @param b the second argument.
+         */
+        void call(Object a, Object b);
+
+        /**
+         * A call with three arguments.
+         *
+         * @param a the first argument.
+         * @param b the second argument.
+         * @param c the third argument.
+         */
+        void call(Object a, Object b, Object c);
+    } // interface Calls
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the default value of a method return type: zero, false or null.
+     *
+     * @param type the return type.
+     * @return the default value.
+     */
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == long.class) {
+            return LONG_ZERO;
+        } else if (type == double.class) {
+            return DOUBLE_ZERO;
+        } else if (type == float.class) {
+            return FLOAT_ZERO;
+        } else if (type == char.class) {
+            return CHAR_ZERO;
+        } else if (type == byte.class) {
+            return BYTE_ZERO;
+        } else if (type == short.class) {
+            return SHORT_ZERO;
+        } else {
+            return INT_ZERO;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Invocation handler implementing the Entity methods used by the plugin.
+     */
+    static final class EntityHandler implements InvocationHandler {
+        /**
+         * Constructor.
+         *
+         * @param type       the entity type.
+         * @param uuid       the entity's UUID.
+         * @param world      the entity's world.
+         * @param x          the entity's X coordinate.
+         * @param y          the entity's Y coordinate.
+         * @param z          the entity's Z coordinate.
+         * @param passengers the entity's passengers.
+         * @param customName the entity's custom name, or null.
+         */
+        EntityHandler(EntityType type, UUID uuid, World world, double x, double y, double z,
+                      List<Entity> passengers, String customName) {
+            _type = type;
+            _uuid = uuid;
+            _world = world;
+            _x = x;
+            _y = y;
+            _z = z;
+            _passengers = passengers;
+            _customName = customName;
+            _ticksLived = Integer.valueOf((int) (uuid.getLeastSignificantBits() & 0xFFFFF));
+        }
+
+        /**
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+         *      java.lang.reflect.Method, java.lang.Object[])
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            recordCall(args);
+            switch (method.getName()) {
+            case "getType":
+                return _type;
+            case "getUniqueId":
+                return _uuid;
+            case "getWorld":
+                return _world;
+            case "getPassengers":
+                ++_allocatingCalls;
+                return _passengers;
+            case "getPassenger":
+                return _passengers.isEmpty() ? null : _passengers.get(0);
+            case "isEmpty":
+                return _passengers.isEmpty();
+            case "isValid":
+                return !_removed;
+            case "isDead":
+                return _removed;
+            case "remove":
+                _removed = true;
+                return null;
+            case "getCustomName":
+                return _customName;
+            case "getTicksLived":
+                return _ticksLived;
+            case "getPersistentDataContainer":
+                if (_pdc == null) {
+                    _pdc = pdc();
+                }
+                return _pdc;
+            case "getLocation":
+                if (args == null || args.length == 0) {
+                    ++_allocatingCalls;
+                    return new Location(_world, _x, _y, _z);
+                } else {
+                    Location loc = (Location) args[0];
+                    if (loc != null) {
+                        loc.setWorld(_world);
+                        loc.setX(_x);
+                        loc.setY(_y);
+                        loc.setZ(_z);
+                    }
+                    return loc;
+                }
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return _type + "(" + _uuid + ")";
+            default:
+                return defaultValue(method.getReturnType());
+            }
+        }
+
+        /**
+         * The entity type.
+         */
+        private final EntityType _type;
+
+        /**
+         * The entity's UUID.
+         */
+        private final UUID _uuid;
+
+        /**
+         * The entity's world.
+         */
+        private final World _world;
+
+        /**
+         * The entity's X coordinate.
+         */
+        private final double _x;
+
+        /**
+         * The entity's Y coordinate.
+         */
+        private final double _y;
+
+        /**
+         * The entity's Z coordinate.
+         */
+        private final double _z;
+
+        /**
+         * The entity's passengers.
+         */
+        private final List<Entity> _passengers;
+
+        /**
+         * The entity's custom name, or null.
+         */
+        private final String _customName;
+
+        /**
+         * The entity's age in ticks, derived from its UUID and boxed once.
+         */
+        private final Integer _ticksLived;
+
+        /**
+         * The entity's PersistentDataContainer, created on first use.
+         */
+        private PersistentDataContainer _pdc;
+
+        /**
+         * True once remove() has been called.
+         */
+        private boolean _removed;
+    } // class EntityHandler
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a map-backed stand-in PersistentDataContainer.
+     *
+     * @return the PersistentDataContainer.
+     */
+    static PersistentDataContainer pdc() {
+        HashMap<NamespacedKey, Object> values = new HashMap<>();
+        return (PersistentDataContainer) Proxy.newProxyInstance(
+            Stubs.class.getClassLoader(), new Class<?>[] { PersistentDataContainer.class },
+            (proxy, method, args) -> {
+                recordCall(args);
+                return switch (method.getName()) {
+                case "set" -> {
+                    values.put((NamespacedKey) args[0], args[2]);
+                    yield null;
+                }
+                case "get" -> values.get(args[0]);
+                case "getOrDefault" -> values.getOrDefault(args[0], args[2]);
+                case "has" -> values.containsKey(args[0]);
+                case "remove" -> {
+                    values.remove(args[0]);
+                    yield null;
+                }
+                case "isEmpty" -> values.isEmpty();
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> defaultValue(method.getReturnType());
+                };
+            });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Size of the per-arity arrays; calls with more arguments are counted
+     * in the last element.
+     */
+    private static final int MAX_ARITY = 4;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of proxied calls made, indexed by number of arguments.
+     */
+    private static final long[] _callsByArity = new long[MAX_ARITY];
+
+    // ------------------------------------------------------------------------
+    /**
+     * Bytes allocated per proxied call, indexed by number of arguments;
+     * measured by calibrate() on first use.
+     */
+    private static long[] _bytesByArity;
+
+    // ------------------------------------------------------------------------
+    /**
+     * The argument array of the last proxied call, published so that the
+     * JIT can't eliminate it.
+     */
+    static Object[] _lastArgs;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of calls to methods whose real implementation allocates.
+     */
+    private static long _allocatingCalls;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Boxed zero returned for int methods.
+     */
+    private static final Integer INT_ZERO = 0;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Boxed zero returned for long methods.
+     */
+    private static final Long LONG_ZERO = 0L;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Boxed zero returned for double methods.
+     */
+    private static final Double DOUBLE_ZERO = 0.0;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Boxed zero returned for float methods.
+     */
+    private static final Float FLOAT_ZERO = 0.0f;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Boxed zero returned for char methods.
+     */
+    private static final Character CHAR_ZERO = '\0';
+
+    // ------------------------------------------------------------------------
+    /**
+     * Boxed zero returned for byte methods.
+     */
+    private static final Byte BYTE_ZERO = 0;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Boxed zero returned for short methods.
+     */
+    private static final Short SHORT_ZERO = 0;
+} // class Stubs
@@ -0,0 +1,150 @@
+package nu.nerd.vc;
+
+import org.bukkit.Bukkit;
+
+// ----------------------------------------------------------------------------
+/**
+ * Computes the scan period of each world and the per-tick scan budget from the
+ * vehicle population and the server's tick time, when adaptive scheduling is
+ * enabled.
+ *
+ * The scan period of a world is interpolated between the configured maximum
+ * and minimum according to the population pressure: the larger of the
+ * world's vehicle population as a fraction of scan.adaptive.high-population,
+ * and its vehicle growth rate since its previous cycle as a fraction of
+ * scan.adaptive.high-growth-per-minute. A quiet world is scanned at the
+ * maximum period; a world with a growing cart farm at the minimum period.
+ *
+ * When the server's average tick time (MSPT) rises above
+ * scan.adaptive.mspt-low, the load factor falls linearly from 1, reaching
+ * scan.adaptive.min-budget-percent at scan.adaptive.mspt-high. The tick budget
+ * is scaled down by the load factor and the period is stretched by it, up to
+ * the maximum period.
+ *
+ * When adaptive scheduling is disabled, each world's period-seconds and
+ * scan.tick-budget-micros are used as is.
+ */
+public class AdaptiveSchedule {
+    // ------------------------------------------------------------------------
+    /**
+     * Called once per tick by the scan task to sample the server's tick time.
+     *
+     * The average tick time is only queried once per second, since Paper
+     * computes it over the last 100 ticks.
+     */
+    public void tick() {
+        if (++_ticks % TICKS_PER_SAMPLE != 0 || !VehicleControl.CONFIG.SCAN_ADAPTIVE) {
+            return;
+        }
+
+        if (_msptSupported) {
+            try {
+                _mspt = Bukkit.getAverageTickTime();
+            } catch (UnsupportedOperationException ex) {
+                // Folia has no global tick time.
+                _msptSupported = false;
+                _mspt = 0;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the period, in seconds, from the start of a world's scan cycle
+     * until the start of its next cycle.
+     *
+     * @param basePeriodSeconds the world's configured period, used when
+     *                          adaptive scheduling is disabled.
+     * @param population        the number of vehicles in the cycle now
+     *                          starting.
+     * @param growthPerMinute   the world's vehicle growth rate since its
+     *                          previous cycle.
+     * @return the scan period in seconds.
+     */
+    public double getPeriodSeconds(int basePeriodSeconds, int population, double growthPerMinute) {
+        Configuration config = VehicleControl.CONFIG;
+        if (!config.SCAN_ADAPTIVE) {
+            return basePeriodSeconds;
+        }
+
+        double pressure = 0;
+        if (config.SCAN_ADAPTIVE_HIGH_POPULATION > 0) {
+            pressure = Math.max(pressure, (double) population / config.SCAN_ADAPTIVE_HIGH_POPULATION);
+        }
+        if (config.SCAN_ADAPTIVE_HIGH_GROWTH_PER_MINUTE > 0) {
+            pressure = Math.max(pressure, growthPerMinute / config.SCAN_ADAPTIVE_HIGH_GROWTH_PER_MINUTE);
+        }
+        pressure = Math.min(1, pressure);
+
+        double min = config.SCAN_ADAPTIVE_MIN_PERIOD_SECONDS;
+        double max = Math.max(min, config.SCAN_ADAPTIVE_MAX_PERIOD_SECONDS);
+        double period = max - (max - min) * pressure;
+        return Math.min(max, period / getLoadFactor());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum time, in nanoseconds, to spend scanning in the
+     * current tick.
+     *
+     * @return the tick budget in nanoseconds, or Long.MAX_VALUE if unlimited.
+     */
+    public long getTickBudgetNanos() {
+        int budgetMicros = VehicleControl.CONFIG.SCAN_TICK_BUDGET_MICROS;
+        if (budgetMicros <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return (long) (1000L * budgetMicros * getLoadFactor());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the factor, in (0, 1], by which the tick budget is scaled down
+     * because of server load.
+     *
+     * @return the load factor; 1 if adaptive scheduling is disabled or the
+     *         server is not under load.
+     */
+    public double getLoadFactor() {
+        Configuration config = VehicleControl.CONFIG;
+        if (!config.SCAN_ADAPTIVE || _mspt <= config.SCAN_ADAPTIVE_MSPT_LOW) {
+            return 1;
+        }
+
+        double minFactor = Math.max(1, Math.min(100, config.SCAN_ADAPTIVE_MIN_BUDGET_PERCENT)) / 100.0;
+        double range = config.SCAN_ADAPTIVE_MSPT_HIGH - config.SCAN_ADAPTIVE_MSPT_LOW;
+        double fraction = (range > 0) ? Math.min(1, (_mspt - config.SCAN_ADAPTIVE_MSPT_LOW) / range) : 1;
+        return 1 - (1 - minFactor) * fraction;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the most recently sampled average tick time.
+     *
+     * @return the average tick time in milliseconds, or 0 if not known.
+     */
+    public double getMspt() {
+        return _mspt;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of ticks between samples of the average tick time.
+     */
+    private static final int TICKS_PER_SAMPLE = 20;
+
+    /**
+     * Number of calls to {@link #tick()}.
+     */
+    private int _ticks;
+
+    /**
+     * False if the server does not report an average tick time.
+     */
+    private boolean _msptSupported = true;
+
+    /**
+     * Most recently sampled average tick time in milliseconds.
+     */
+    private volatile double _mspt;
+} // class AdaptiveSchedule
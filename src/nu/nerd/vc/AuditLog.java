@@ -0,0 +1,565 @@
+package nu.nerd.vc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Vehicle;
+
+// ----------------------------------------------------------------------------
+/**
+ * Records vehicle breaks and exemptions to rolling audit files and, when the
+ * corresponding debug settings are enabled, to the console.
+ *
+ * The tick thread (or region thread) only captures a small fixed-size
+ * {@link Record} and offers it to a bounded lock-free {@link RingQueue}.
+ * Formatting and I/O happen on an asynchronous thread, which drains the queue
+ * once a second and appends the batch to the current audit file. When the
+ * file would exceed audit.max-file-size-kb, it is renamed with a time stamp
+ * suffix and a new file started; the oldest rotated files beyond
+ * audit.max-files are deleted. If the queue is full, records are dropped and
+ * counted rather than stalling the tick.
+ */
+public class AuditLog {
+    // ------------------------------------------------------------------------
+    /**
+     * The audited actions.
+     */
+    public enum Action {
+        /**
+         * A vehicle was broken.
+         */
+        BREAK,
+
+        /**
+         * A vehicle was exempted from breaking because of its passengers.
+         */
+        EXEMPT
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Audit file formats.
+     */
+    public enum Format {
+        /**
+         * One JSON object per line.
+         */
+        NDJSON,
+
+        /**
+         * Comma separated values with a header line.
+         */
+        CSV
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A captured audit event.
+     *
+     * Vehicles carry at most two passengers, so the passengers' types and
+     * names are stored in fixed fields.
+     */
+    static final class Record {
+        /**
+         * The time of the event, in milliseconds since the epoch.
+         */
+        long timeMillis;
+
+        /**
+         * What happened to the vehicle.
+         */
+        Action action;
+
+        /**
+         * The type of the vehicle.
+         */
+        EntityType vehicleType;
+
+        /**
+         * The UUID of the vehicle.
+         */
+        UUID vehicleId;
+
+        /**
+         * The name of the vehicle's world.
+         */
+        String world;
+
+        /**
+         * The block X coordinate of the vehicle.
+         */
+        int x;
+
+        /**
+         * The block Y coordinate of the vehicle.
+         */
+        int y;
+
+        /**
+         * The block Z coordinate of the vehicle.
+         */
+        int z;
+
+        /**
+         * The type of item dropped, or null if nothing was dropped.
+         */
+        Material drop;
+
+        /**
+         * The number of passengers.
+         */
+        int passengerCount;
+
+        /**
+         * The type of the first passenger, or null if none.
+         */
+        EntityType passengerType0;
+
+        /**
+         * The custom name of the first passenger, or null.
+         */
+        String passengerName0;
+
+        /**
+         * The type of the second passenger, or null if none.
+         */
+        EntityType passengerType1;
+
+        /**
+         * The custom name of the second passenger, or null.
+         */
+        String passengerName1;
+    } // class Record
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if events of the specified action should be captured.
+     *
+     * @param action the action.
+     * @return true if the audit log is enabled or the action's debug setting
+     *         is enabled.
+     */
+    public boolean isEnabled(Action action) {
+        Configuration config = VehicleControl.CONFIG;
+        return config.AUDIT_ENABLED ||
+               (action == Action.BREAK ? config.DEBUG_BREAK_VEHICLE : config.DEBUG_EXEMPT_VEHICLE);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Capture an event, to be written asynchronously.
+     *
+     * Callers should check {@link #isEnabled(Action)} first.
+     *
+     * @param action     the action.
+     * @param vehicle    the vehicle.
+     * @param loc        the vehicle's location.
+     * @param drop       the type of item dropped, or null.
+     * @param passengers the vehicle's passengers.
+     */
+    public void record(Action action, Vehicle vehicle, Location loc, Material drop, List<Entity> passengers) {
+        Record record = new Record();
+        record.timeMillis = System.currentTimeMillis();
+        record.action = action;
+        record.vehicleType = vehicle.getType();
+        record.vehicleId = vehicle.getUniqueId();
+        record.world = loc.getWorld().getName();
+        record.x = loc.getBlockX();
+        record.y = loc.getBlockY();
+        record.z = loc.getBlockZ();
+        record.drop = drop;
+        record.passengerCount = passengers.size();
+        if (passengers.size() > 0) {
+            record.passengerType0 = passengers.get(0).getType();
+            record.passengerName0 = passengers.get(0).getCustomName();
+        }
+        if (passengers.size() > 1) {
+            record.passengerType1 = passengers.get(1).getType();
+            record.passengerName1 = passengers.get(1).getCustomName();
+        }
+        if (!_queue.offer(record)) {
+            _dropped.increment();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start the asynchronous writer.
+     */
+    public void start() {
+        VehicleControl.SCHEDULER.runAsyncTimer(this::flush, 20, 20);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write all queued records to the console and audit file, as configured.
+     *
+     * This is called periodically on an asynchronous thread, and once more
+     * when the plugin is disabled.
+     */
+    public synchronized void flush() {
+        Configuration config = VehicleControl.CONFIG;
+        StringBuilder batch = new StringBuilder();
+        Record record;
+        while ((record = _queue.poll()) != null) {
+            if (record.action == Action.BREAK ? config.DEBUG_BREAK_VEHICLE : config.DEBUG_EXEMPT_VEHICLE) {
+                VehicleControl.PLUGIN.getLogger().info(formatMessage(record));
+            }
+            if (config.AUDIT_ENABLED) {
+                if (config.AUDIT_FORMAT == Format.CSV) {
+                    appendCsv(batch, record);
+                } else {
+                    appendJson(batch, record);
+                }
+            }
+        }
+
+        long dropped = _dropped.sumThenReset();
+        if (dropped > 0) {
+            VehicleControl.PLUGIN.getLogger().warning("Audit queue full; dropped " + dropped + " records.");
+        }
+
+        if (batch.length() > 0) {
+            try {
+                write(batch.toString());
+            } catch (IOException ex) {
+                VehicleControl.PLUGIN.getLogger().warning("Unable to write audit log: " + ex.getMessage());
+                close();
+            }
+        } else if (!config.AUDIT_ENABLED) {
+            close();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Flush queued records and close the audit file.
+     */
+    public synchronized void shutdown() {
+        flush();
+        close();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append text to the current audit file, rotating it first if it would
+     * exceed the maximum size.
+     *
+     * @param text the text.
+     * @throws IOException if the file could not be written.
+     */
+    protected void write(String text) throws IOException {
+        Configuration config = VehicleControl.CONFIG;
+        File directory = new File(config.AUDIT_DIRECTORY);
+        if (!directory.isAbsolute()) {
+            directory = new File(VehicleControl.PLUGIN.getDataFolder(), config.AUDIT_DIRECTORY);
+        }
+        String extension = (config.AUDIT_FORMAT == Format.CSV) ? ".csv" : ".ndjson";
+        Path path = new File(directory, FILE_NAME + extension).toPath();
+        if (!path.equals(_path)) {
+            close();
+        }
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        long maxBytes = 1024L * config.AUDIT_MAX_FILE_SIZE_KB;
+        if (_writer != null && maxBytes > 0 && _size + bytes.length > maxBytes) {
+            close();
+            rotate(directory, path, extension);
+        }
+
+        if (_writer == null) {
+            Files.createDirectories(directory.toPath());
+            boolean exists = Files.exists(path);
+            _size = exists ? Files.size(path) : 0;
+            if (exists && maxBytes > 0 && _size + bytes.length > maxBytes) {
+                rotate(directory, path, extension);
+                _size = 0;
+            }
+            _writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            _path = path;
+            if (_size == 0 && config.AUDIT_FORMAT == Format.CSV) {
+                _writer.write(CSV_HEADER);
+                _size += CSV_HEADER.length();
+            }
+        }
+
+        _writer.write(text);
+        _writer.flush();
+        _size += bytes.length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rename the current audit file with a time stamp and sequence number
+     * suffix, e.g. audit-20250101-120000-000.ndjson, and delete the
+     * oldest rotated files in excess of audit.max-files.
+     *
+     * @param directory the audit directory.
+     * @param path      the current audit file.
+     * @param extension the file name extension.
+     * @throws IOException if the file could not be renamed.
+     */
+    protected void rotate(File directory, Path path, String extension) throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path rotated;
+        int sequence = 0;
+        do {
+            // Zero padded, so that files rotated in the same second sort in order.
+            rotated = path.resolveSibling(FILE_NAME + "-" + stamp + "-" + String.format("%03d", sequence++) +
+                                          extension);
+        } while (Files.exists(rotated));
+        Files.move(path, rotated);
+
+        int maxFiles = VehicleControl.CONFIG.AUDIT_MAX_FILES;
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_NAME + "-") &&
+                                                          name.endsWith(extension));
+        if (maxFiles > 0 && files != null && files.length > maxFiles) {
+            // Time stamp and sequence number suffixes sort chronologically.
+            Arrays.sort(files);
+            for (int i = 0; i < files.length - maxFiles; ++i) {
+                files[i].delete();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Close the current audit file, if open.
+     */
+    protected void close() {
+        if (_writer != null) {
+            try {
+                _writer.close();
+            } catch (IOException ex) {
+                // Nothing more can be done.
+            }
+            _writer = null;
+            _path = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a record as a console message.
+     *
+     * @param record the record.
+     * @return the message.
+     */
+    protected static String formatMessage(Record record) {
+        StringBuilder message = new StringBuilder();
+        message.append(record.action == Action.BREAK ? "Breaking " : "Exempted ").append(record.vehicleType.name());
+        message.append(" at ").append(record.world).append(", ")
+            .append(record.x).append(", ").append(record.y).append(", ").append(record.z);
+        if (record.drop != null) {
+            message.append(" dropping ").append(record.drop.name());
+        }
+        if (record.passengerCount == 0) {
+            message.append(", no passengers");
+        } else {
+            message.append(", passengers ");
+            appendPassenger(message, record.passengerType0, record.passengerName0);
+            if (record.passengerCount > 1) {
+                message.append(", ");
+                appendPassenger(message, record.passengerType1, record.passengerName1);
+            }
+        }
+        return message.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a passenger's type and custom name (if any) to a console message.
+     *
+     * @param message the message.
+     * @param type    the passenger type.
+     * @param name    the custom name, or null.
+     */
+    protected static void appendPassenger(StringBuilder message, EntityType type, String name) {
+        message.append(type.name());
+        if (name != null && !name.isEmpty()) {
+            message.append("(").append(name).append(")");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a record as a line of JSON.
+     *
+     * @param out    the output.
+     * @param record the record.
+     */
+    protected static void appendJson(StringBuilder out, Record record) {
+        out.append("{\"time\":\"").append(Instant.ofEpochMilli(record.timeMillis)).append('"');
+        out.append(",\"action\":\"").append(record.action).append('"');
+        out.append(",\"vehicle\":\"").append(record.vehicleType).append('"');
+        out.append(",\"uuid\":\"").append(record.vehicleId).append('"');
+        out.append(",\"world\":");
+        appendJsonString(out, record.world);
+        out.append(",\"x\":").append(record.x);
+        out.append(",\"y\":").append(record.y);
+        out.append(",\"z\":").append(record.z);
+        if (record.drop != null) {
+            out.append(",\"drop\":\"").append(record.drop).append('"');
+        }
+        out.append(",\"passengers\":[");
+        if (record.passengerCount > 0) {
+            appendJsonPassenger(out, record.passengerType0, record.passengerName0);
+        }
+        if (record.passengerCount > 1) {
+            out.append(',');
+            appendJsonPassenger(out, record.passengerType1, record.passengerName1);
+        }
+        out.append("]}\n");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a passenger as a JSON object.
+     *
+     * @param out  the output.
+     * @param type the passenger type.
+     * @param name the custom name, or null.
+     */
+    protected static void appendJsonPassenger(StringBuilder out, EntityType type, String name) {
+        out.append("{\"type\":\"").append(type).append('"');
+        if (name != null) {
+            out.append(",\"name\":");
+            appendJsonString(out, name);
+        }
+        out.append('}');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a quoted, escaped JSON string.
+     *
+     * @param out   the output.
+     * @param value the string.
+     */
+    protected static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a record as a line of CSV, with columns as in
+     * {@link #CSV_HEADER}.
+     *
+     * @param out    the output.
+     * @param record the record.
+     */
+    protected static void appendCsv(StringBuilder out, Record record) {
+        out.append(Instant.ofEpochMilli(record.timeMillis)).append(',');
+        out.append(record.action).append(',');
+        out.append(record.vehicleType).append(',');
+        out.append(record.vehicleId).append(',');
+        appendCsvString(out, record.world);
+        out.append(',').append(record.x).append(',').append(record.y).append(',').append(record.z).append(',');
+        if (record.drop != null) {
+            out.append(record.drop);
+        }
+        out.append(',').append(record.passengerCount).append(',');
+        if (record.passengerType0 != null) {
+            out.append(record.passengerType0);
+        }
+        out.append(',');
+        appendCsvString(out, record.passengerName0);
+        out.append(',');
+        if (record.passengerType1 != null) {
+            out.append(record.passengerType1);
+        }
+        out.append(',');
+        appendCsvString(out, record.passengerName1);
+        out.append('\n');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a CSV field, quoted if necessary.
+     *
+     * @param out   the output.
+     * @param value the field value, or null for an empty field.
+     */
+    protected static void appendCsvString(StringBuilder out, String value) {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 &&
+            value.indexOf('\r') < 0) {
+            out.append(value);
+        } else {
+            out.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Base name of audit files, without the extension.
+     */
+    private static final String FILE_NAME = "vehicles";
+
+    /**
+     * Header line of CSV audit files.
+     */
+    private static final String CSV_HEADER =
+        "time,action,vehicle,uuid,world,x,y,z,drop,passengers,passenger1,name1,passenger2,name2\n";
+
+    /**
+     * Maximum number of records awaiting the writer.
+     */
+    private static final int QUEUE_CAPACITY = 65536;
+
+    /**
+     * Records awaiting the writer.
+     */
+    private final RingQueue<Record> _queue = new RingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Number of records dropped because the queue was full, since the last
+     * flush.
+     */
+    private final LongAdder _dropped = new LongAdder();
+
+    /**
+     * Writer of the current audit file, or null if not open.
+     */
+    private BufferedWriter _writer;
+
+    /**
+     * Path of the current audit file, or null if not open.
+     */
+    private Path _path;
+
+    /**
+     * Size of the current audit file in bytes.
+     */
+    private long _size;
+} // class AuditLog
@@ -0,0 +1,99 @@
+package nu.nerd.vc;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * {@link TaskScheduler} implementation for servers with a single main thread.
+ *
+ * All tasks run on the main thread. Since the scan task also runs on the main
+ * thread, tasks for entities and regions are run immediately.
+ */
+public class BukkitTaskScheduler implements TaskScheduler {
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#isRegionThreaded()
+     */
+    @Override
+    public boolean isRegionThreaded() {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#isOwnedByCurrentThread(org.bukkit.World,
+     *      int, int)
+     */
+    @Override
+    public boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ) {
+        return Bukkit.isPrimaryThread();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runTimer(java.lang.Runnable, long, long)
+     */
+    @Override
+    public void runTimer(Runnable task, long delay, long period) {
+        Bukkit.getScheduler().runTaskTimer(VehicleControl.PLUGIN, task, delay, period);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runGlobal(java.lang.Runnable)
+     */
+    @Override
+    public void runGlobal(Runnable task) {
+        Bukkit.getScheduler().runTask(VehicleControl.PLUGIN, task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runAsync(java.lang.Runnable)
+     */
+    @Override
+    public void runAsync(Runnable task) {
+        Bukkit.getScheduler().runTaskAsynchronously(VehicleControl.PLUGIN, task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runAsyncTimer(java.lang.Runnable, long,
+     *      long)
+     */
+    @Override
+    public void runAsyncTimer(Runnable task, long delay, long period) {
+        Bukkit.getScheduler().runTaskTimerAsynchronously(VehicleControl.PLUGIN, task, delay, period);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runForEntity(org.bukkit.entity.Entity,
+     *      java.lang.Runnable)
+     */
+    @Override
+    public void runForEntity(Entity entity, Runnable task) {
+        task.run();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runForRegion(org.bukkit.World, int, int,
+     *      java.lang.Runnable)
+     */
+    @Override
+    public void runForRegion(World world, int chunkX, int chunkZ, Runnable task) {
+        task.run();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#cancelTasks()
+     */
+    @Override
+    public void cancelTasks() {
+        Bukkit.getScheduler().cancelTasks(VehicleControl.PLUGIN);
+    }
+} // class BukkitTaskScheduler
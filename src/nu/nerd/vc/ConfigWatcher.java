@@ -0,0 +1,168 @@
+package nu.nerd.vc;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// ----------------------------------------------------------------------------
+/**
+ * Watches config.yml and reloads the configuration when its contents change.
+ *
+ * A daemon thread blocks on an NIO WatchService for changes to the plugin's
+ * data folder. Editors often write a file in several steps, so after a change
+ * to config.yml the thread waits until the folder has been quiet for
+ * {@link #SETTLE_MILLIS} before comparing the file's contents with those last
+ * loaded. If they differ, the reload is scheduled on the thread responsible
+ * for global state, where the new configuration snapshot is swapped in. If
+ * the file is not valid YAML, for example because it was saved mid-edit, the
+ * current snapshot is kept until the next change.
+ *
+ * Changes are ignored while reload.watch-file is false.
+ */
+public class ConfigWatcher implements Runnable {
+    // ------------------------------------------------------------------------
+    /**
+     * Start watching config.yml.
+     *
+     * Failure to watch the file is logged, but is otherwise harmless: the
+     * configuration can still be reloaded with /vehiclecontrol reload.
+     */
+    public void start() {
+        Path folder = VehicleControl.PLUGIN.getDataFolder().toPath();
+        _file = folder.resolve("config.yml");
+        _loaded = readFile();
+        try {
+            _watchService = FileSystems.getDefault().newWatchService();
+            folder.register(_watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ex) {
+            VehicleControl.PLUGIN.getLogger().warning("Unable to watch " + _file + " for changes: " +
+                                                      ex.getMessage());
+            return;
+        }
+
+        Thread thread = new Thread(this, VehicleControl.PLUGIN.getName() + " config watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop watching config.yml.
+     */
+    public void stop() {
+        if (_watchService != null) {
+            try {
+                _watchService.close();
+            } catch (IOException ex) {
+                // Nothing to be done.
+            }
+            _watchService = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the contents of config.yml as loaded, so that the watcher does
+     * not reload them again.
+     *
+     * Called whenever the configuration is reloaded, by any means.
+     */
+    public void onReload() {
+        _loaded = readFile();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.Runnable#run()
+     *
+     *      Wait for changes to config.yml until the WatchService is closed.
+     */
+    @Override
+    public void run() {
+        WatchService watchService = _watchService;
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = isConfigChanged(key);
+
+                // Let a burst of writes settle before reading the file.
+                while (changed && (key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    isConfigChanged(key);
+                }
+                if (changed && VehicleControl.CONFIG.RELOAD_WATCH_FILE && !Arrays.equals(readFile(), _loaded)) {
+                    VehicleControl.SCHEDULER.runGlobal(() -> {
+                        VehicleControl.PLUGIN.getLogger().info("config.yml changed; reloading.");
+                        VehicleControl.reloadConfiguration();
+                    });
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // Stopped.
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Consume the events of a WatchKey and reset it.
+     *
+     * @param key the key.
+     * @return true if any event concerned config.yml.
+     */
+    protected boolean isConfigChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                (context instanceof Path && _file.getFileName().equals(context))) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the contents of config.yml.
+     *
+     * @return the contents, or an empty array if the file can't be read.
+     */
+    protected byte[] readFile() {
+        try {
+            return Files.readAllBytes(_file);
+        } catch (IOException ex) {
+            return new byte[0];
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Time in milliseconds without further changes after which a change to
+     * config.yml is considered complete.
+     */
+    private static final long SETTLE_MILLIS = 500;
+
+    /**
+     * The path of config.yml.
+     */
+    private Path _file;
+
+    /**
+     * The contents of config.yml when it was last loaded.
+     */
+    private volatile byte[] _loaded = new byte[0];
+
+    /**
+     * The WatchService, or null if not watching.
+     */
+    private volatile WatchService _watchService;
+} // class ConfigWatcher
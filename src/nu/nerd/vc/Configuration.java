@@ -1,166 +1,545 @@
 package nu.nerd.vc;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.MemoryConfiguration;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.EntityType;
 
 // ----------------------------------------------------------------------------
 /**
  * Configuration wrapper.
+ *
+ * Each instance is an immutable snapshot of the configuration: its fields are
+ * final and are populated by its constructor before it is published through
+ * the volatile VehicleControl.CONFIG reference. Reloading the configuration
+ * creates a new snapshot and swaps it in, so code running on any thread that
+ * reads VehicleControl.CONFIG once sees a consistent set of settings.
+ * Collections are unmodifiable, and per-EntityType decisions about passengers
+ * are precomputed into tables indexed by ordinal.
  */
 public class Configuration {
     /**
      * If true, log the configuration on load.
      */
-    public boolean DEBUG_CONFIGURATION;
+    public final boolean DEBUG_CONFIGURATION;
+
+    /**
+     * If true, reload the configuration when config.yml changes.
+     */
+    public final boolean RELOAD_WATCH_FILE;
 
     /**
      * If true, log the time taken to run the scanning task.
      */
-    public boolean DEBUG_OVERHEAD;
+    public final boolean DEBUG_OVERHEAD;
 
     /**
      * If true, log breaking of vehicles.
      */
-    public boolean DEBUG_BREAK_VEHICLE;
+    public final boolean DEBUG_BREAK_VEHICLE;
 
     /**
      * If true, log vehicles that are exempt from breaking when scanned.
      */
-    public boolean DEBUG_EXEMPT_VEHICLE;
+    public final boolean DEBUG_EXEMPT_VEHICLE;
 
     /**
      * The period, in seconds, between scans for carts and boats.
      */
-    public int SCAN_PERIOD_SECONDS;
+    public final int SCAN_PERIOD_SECONDS;
+
+    /**
+     * The maximum time, in microseconds, spent scanning vehicles in a single
+     * tick. If zero or negative, each scan is completed in a single tick.
+     */
+    public final int SCAN_TICK_BUDGET_MICROS;
+
+    /**
+     * If true, the scan period and tick budget adapt to the vehicle population
+     * and server tick time. See {@link AdaptiveSchedule}.
+     */
+    public final boolean SCAN_ADAPTIVE;
+
+    /**
+     * The shortest scan period, in seconds, with adaptive scheduling.
+     */
+    public final int SCAN_ADAPTIVE_MIN_PERIOD_SECONDS;
+
+    /**
+     * The longest scan period, in seconds, with adaptive scheduling.
+     */
+    public final int SCAN_ADAPTIVE_MAX_PERIOD_SECONDS;
+
+    /**
+     * The vehicle population at which the scan period is shortest. If zero,
+     * population does not affect the period.
+     */
+    public final int SCAN_ADAPTIVE_HIGH_POPULATION;
+
+    /**
+     * The vehicle growth rate, in vehicles per minute, at which the scan
+     * period is shortest. If zero, growth does not affect the period.
+     */
+    public final int SCAN_ADAPTIVE_HIGH_GROWTH_PER_MINUTE;
+
+    /**
+     * The average tick time, in milliseconds, above which scanning backs off.
+     */
+    public final double SCAN_ADAPTIVE_MSPT_LOW;
+
+    /**
+     * The average tick time, in milliseconds, at which scanning backs off
+     * fully.
+     */
+    public final double SCAN_ADAPTIVE_MSPT_HIGH;
+
+    /**
+     * The percentage of the tick budget used when scanning backs off fully.
+     */
+    public final int SCAN_ADAPTIVE_MIN_BUDGET_PERCENT;
+
+    /**
+     * If true, scan decisions are computed on a thread pool and applied on a
+     * later tick.
+     */
+    public final boolean SCAN_OFFLOAD;
+
+    /**
+     * The number of threads that compute scan decisions; takes effect on
+     * restart.
+     */
+    public final int SCAN_OFFLOAD_THREADS;
+
+    /**
+     * If true, vehicles in entity ticking chunks are scanned first, and
+     * vehicles in other chunks only every SCAN_LOAD_LEVEL_NON_TICKING_CYCLES
+     * cycles.
+     */
+    public final boolean SCAN_LOAD_LEVEL;
 
     /**
-     * List of worlds that are scanned for vehicles to process.
+     * The number of scan cycles of a world between scans of vehicles in
+     * chunks that are not entity ticking, or 0 to only scan them once their
+     * chunks are entity ticking.
      */
-    public ArrayList<World> SCAN_WORLDS = new ArrayList<World>();
+    public final int SCAN_LOAD_LEVEL_NON_TICKING_CYCLES;
+
+    /**
+     * Names of the worlds that are scanned for vehicles, whether or not they
+     * are loaded.
+     *
+     * The loaded worlds among them are in VehicleControl.SCAN_WORLDS, which
+     * changes as worlds load and unload without replacing this snapshot.
+     */
+    public final List<String> SCAN_WORLD_NAMES;
 
     /**
      * If true, remove carts and boats when the player exits.
      *
      * They will not drop as an item. They simply vanish.
      */
-    public boolean VEHICLES_REMOVE_ON_EXIT;
+    public final boolean VEHICLES_REMOVE_ON_EXIT;
 
     /**
      * If true, drop the vehicle as an item when broken (otherwise, it simply
      * vanishes).
      */
-    public boolean VEHICLES_DROP_ITEM;
+    public final boolean VEHICLES_DROP_ITEM;
+
+    /**
+     * How the items dropped by broken vehicles are grouped into piles, or NONE
+     * to drop them immediately.
+     */
+    public final DropCoalescer.Grouping VEHICLES_COALESCE_DROPS;
+
+    /**
+     * The number of ticks over which dropped items are collected into a pile.
+     */
+    public final int VEHICLES_COALESCE_DROPS_TICKS;
+
+    /**
+     * The location of a container that receives the items dropped by broken
+     * vehicles, or null to drop them in the world.
+     */
+    public final Location VEHICLES_DROP_CONTAINER;
+
+    /**
+     * How the time that vehicles have been empty or occupied is measured.
+     */
+    public final VehicleScanTask.Timing VEHICLES_TIMING;
 
     /**
      * If true, break boats or passenger carts that are empty.
      */
-    public boolean VEHICLES_BREAK_EMPTY;
+    public final boolean VEHICLES_BREAK_EMPTY;
 
     /**
      * The minimum period, in seconds, that an empty vehicle can persist before
      * breaking.
      */
-    public int VEHICLES_BREAK_EMPTY_SECONDS;
+    public final int VEHICLES_BREAK_EMPTY_SECONDS;
 
     /**
      * If true, break vehicles with passengers of specified types.
      */
-    public boolean VEHICLES_BREAK_WITH_PASSENGER;
+    public final boolean VEHICLES_BREAK_WITH_PASSENGER;
 
     /**
      * The minimum period, in seconds, that a vehicle with a mob passenger can
      * persist before it is broken automatically.
      */
-    public int VEHICLES_BREAK_WITH_PASSENGER_SECONDS;
+    public final int VEHICLES_BREAK_WITH_PASSENGER_SECONDS;
 
     /**
      * Types of passengers that are vulnerable to their vehicle breaking.
      */
-    public Set<EntityType> VEHICLES_BREAK_WITH_PASSENGER_TYPES = new HashSet<EntityType>();
+    public final Set<EntityType> VEHICLES_BREAK_WITH_PASSENGER_TYPES;
+
+    /**
+     * The horizontal radius, in blocks, within which a player keeps an empty
+     * vehicle on its normal timeout. If zero, proximity is ignored.
+     */
+    public final double VEHICLES_PROXIMITY_RADIUS;
+
+    /**
+     * The timeout, in seconds, of empty vehicles with no player within
+     * VEHICLES_PROXIMITY_RADIUS, if shorter than the normal timeout.
+     */
+    public final int VEHICLES_PROXIMITY_FAR_BREAK_EMPTY_SECONDS;
+
+    /**
+     * If true, break vehicles that have not moved to another block for
+     * VEHICLES_BREAK_STATIONARY_SECONDS, whether or not they are occupied.
+     */
+    public final boolean VEHICLES_BREAK_STATIONARY;
+
+    /**
+     * The period, in seconds, that a vehicle can stay in one block before it
+     * breaks, if VEHICLES_BREAK_STATIONARY is true.
+     */
+    public final int VEHICLES_BREAK_STATIONARY_SECONDS;
 
     /**
      * If true, protect vehicles with passengers of specified types if the
      * passengers are named.
      */
-    public boolean VEHICLES_EXEMPT_WITH_NAMED_PASSENGER;
+    public final boolean VEHICLES_EXEMPT_WITH_NAMED_PASSENGER;
 
     /**
      * Types of otherwise vulnerable passengers that are exempted from their
      * vehicle breaking if they have been named.
      */
-    public Set<EntityType> VEHICLES_EXEMPT_WITH_NAMED_PASSENGER_TYPES = new HashSet<EntityType>();
+    public final Set<EntityType> VEHICLES_EXEMPT_WITH_NAMED_PASSENGER_TYPES;
 
-    // ------------------------------------------------------------------------
     /**
-     * Load the plugin configuration.
+     * Settings of worlds that have no worlds.&lt;world&gt; section.
      */
-    public void reload() {
-        VehicleControl.PLUGIN.reloadConfig();
+    public final WorldSettings DEFAULT_WORLD_SETTINGS;
+
+    /**
+     * Map from world name to the settings of worlds that have a
+     * worlds.&lt;world&gt; section.
+     */
+    public final Map<String, WorldSettings> WORLD_SETTINGS;
+
+    /**
+     * Map from name to zone, in name order.
+     */
+    public final Map<String, Zone> ZONES;
 
-        DEBUG_CONFIGURATION = getConfig().getBoolean("debug.configuration");
-        DEBUG_OVERHEAD = getConfig().getBoolean("debug.overhead");
-        DEBUG_BREAK_VEHICLE = getConfig().getBoolean("debug.break-vehicle");
-        DEBUG_EXEMPT_VEHICLE = getConfig().getBoolean("debug.exempt-vehicle");
+    /**
+     * Map from world name to the index of the zones in that world. Worlds
+     * without zones have no entry.
+     */
+    public final Map<String, ZoneIndex> ZONE_INDEXES;
 
-        SCAN_PERIOD_SECONDS = getConfig().getInt("scan.period-seconds");
-        SCAN_WORLDS.clear();
-        for (String worldName : getConfig().getStringList("scan.worlds")) {
-            World world = Bukkit.getWorld(worldName);
-            if (world == null) {
-                getLogger().warning("There is no world named \"" + worldName + "\" to scan.");
-            } else {
-                SCAN_WORLDS.add(world);
+    /**
+     * The maximum number of vehicles in a chunk, or 0 for no limit.
+     */
+    public final int DENSITY_MAX_PER_CHUNK;
+
+    /**
+     * The maximum number of vehicles in a single block, or 0 for no limit.
+     */
+    public final int DENSITY_MAX_PER_BLOCK;
+
+    /**
+     * The order in which vehicles exceeding the density limits are culled.
+     */
+    public final DensityControl.CullOrder DENSITY_CULL_ORDER;
+
+    /**
+     * The maximum number of loaded vehicles placed by one player, or 0 for no
+     * limit.
+     */
+    public final int QUOTA_MAX_VEHICLES_PER_PLAYER;
+
+    /**
+     * What to do when a player at the quota places another vehicle.
+     */
+    public final OwnerQuota.Action QUOTA_ACTION;
+
+    /**
+     * The maximum number of vehicles broken in one tick, or 0 for no limit.
+     */
+    public final int REMOVAL_MAX_PER_TICK;
+
+    /**
+     * The maximum time, in microseconds, spent breaking vehicles in one tick,
+     * or 0 for no limit.
+     */
+    public final int REMOVAL_TICK_BUDGET_MICROS;
+
+    /**
+     * Path of the file where metrics are written in Prometheus text format,
+     * relative to the plugin's data folder if not absolute. Empty to disable.
+     */
+    public final String METRICS_PROMETHEUS_FILE;
+
+    /**
+     * The period, in seconds, between writes of the metrics file.
+     */
+    public final int METRICS_WRITE_PERIOD_SECONDS;
+
+    /**
+     * If true, vehicle breaks and exemptions are written to audit files.
+     */
+    public final boolean AUDIT_ENABLED;
+
+    /**
+     * The format of audit files.
+     */
+    public final AuditLog.Format AUDIT_FORMAT;
+
+    /**
+     * Directory containing audit files, relative to the plugin's data folder
+     * if not absolute.
+     */
+    public final String AUDIT_DIRECTORY;
+
+    /**
+     * The size, in kilobytes, at which audit files are rotated. If zero, files
+     * are not rotated.
+     */
+    public final int AUDIT_MAX_FILE_SIZE_KB;
+
+    /**
+     * The number of rotated audit files kept. If zero, all are kept.
+     */
+    public final int AUDIT_MAX_FILES;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reload the configuration file and return a new snapshot of it.
+     *
+     * config.yml is parsed before the plugin's configuration is reloaded. If
+     * it is not valid YAML, a warning is logged and the current snapshot is
+     * kept, rather than replacing every setting with its default.
+     *
+     * @param current the current snapshot, or null when the plugin is
+     *                enabled, in which case an invalid file is reported by
+     *                the server and the defaults are used.
+     * @return the new snapshot, or current if config.yml is invalid.
+     */
+    public static Configuration load(Configuration current) {
+        File file = new File(VehicleControl.PLUGIN.getDataFolder(), "config.yml");
+        if (current != null && file.exists()) {
+            try {
+                new YamlConfiguration().load(file);
+            } catch (IOException | InvalidConfigurationException ex) {
+                getLogger().warning("Unable to load " + file + "; keeping the current configuration: " +
+                                    ex.getMessage());
+                return current;
             }
         }
+        VehicleControl.PLUGIN.reloadConfig();
+        return new Configuration(getConfig());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a snapshot with every setting at its zero value, which is used
+     * until the plugin is enabled.
+     */
+    public Configuration() {
+        this(new MemoryConfiguration());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a snapshot of the settings in a configuration.
+     *
+     * Missing settings take their zero values, or the stated defaults of
+     * enumerated settings. The plugin's configuration supplies every setting
+     * from the defaults in the JAR, whereas the configurations of benchmarks
+     * need only set the settings they depend on.
+     *
+     * @param config the root section of the configuration.
+     */
+    public Configuration(ConfigurationSection config) {
+        DEBUG_CONFIGURATION = config.getBoolean("debug.configuration");
+        DEBUG_OVERHEAD = config.getBoolean("debug.overhead");
+        DEBUG_BREAK_VEHICLE = config.getBoolean("debug.break-vehicle");
+        DEBUG_EXEMPT_VEHICLE = config.getBoolean("debug.exempt-vehicle");
+        RELOAD_WATCH_FILE = config.getBoolean("reload.watch-file");
 
-        VEHICLES_REMOVE_ON_EXIT = getConfig().getBoolean("vehicles.remove-on-exit");
-        VEHICLES_DROP_ITEM = getConfig().getBoolean("vehicles.drop-item");
-        VEHICLES_BREAK_EMPTY = getConfig().getBoolean("vehicles.break-empty");
-        VEHICLES_BREAK_EMPTY_SECONDS = getConfig().getInt("vehicles.break-empty-seconds");
+        SCAN_PERIOD_SECONDS = config.getInt("scan.period-seconds");
+        SCAN_TICK_BUDGET_MICROS = config.getInt("scan.tick-budget-micros");
+        SCAN_ADAPTIVE = config.getBoolean("scan.adaptive.enabled");
+        SCAN_ADAPTIVE_MIN_PERIOD_SECONDS = config.getInt("scan.adaptive.min-period-seconds");
+        SCAN_ADAPTIVE_MAX_PERIOD_SECONDS = config.getInt("scan.adaptive.max-period-seconds");
+        SCAN_ADAPTIVE_HIGH_POPULATION = config.getInt("scan.adaptive.high-population");
+        SCAN_ADAPTIVE_HIGH_GROWTH_PER_MINUTE = config.getInt("scan.adaptive.high-growth-per-minute");
+        SCAN_ADAPTIVE_MSPT_LOW = config.getDouble("scan.adaptive.mspt-low");
+        SCAN_ADAPTIVE_MSPT_HIGH = config.getDouble("scan.adaptive.mspt-high");
+        SCAN_ADAPTIVE_MIN_BUDGET_PERCENT = config.getInt("scan.adaptive.min-budget-percent");
+        SCAN_OFFLOAD = config.getBoolean("scan.offload.enabled");
+        SCAN_OFFLOAD_THREADS = config.getInt("scan.offload.threads");
+        SCAN_LOAD_LEVEL = config.getBoolean("scan.load-level.enabled");
+        SCAN_LOAD_LEVEL_NON_TICKING_CYCLES = config.getInt("scan.load-level.non-ticking-cycles");
+        SCAN_WORLD_NAMES = Collections.unmodifiableList(new ArrayList<String>(config.getStringList("scan.worlds")));
 
-        VEHICLES_BREAK_WITH_PASSENGER = getConfig().getBoolean("vehicles.break-with-passenger");
-        VEHICLES_BREAK_WITH_PASSENGER_SECONDS = getConfig().getInt("vehicles.break-with-passenger-seconds");
-        VEHICLES_BREAK_WITH_PASSENGER_TYPES.clear();
-        for (String typeName : getConfig().getStringList("vehicles.break-with-passenger-types")) {
+        VEHICLES_REMOVE_ON_EXIT = config.getBoolean("vehicles.remove-on-exit");
+        VEHICLES_DROP_ITEM = config.getBoolean("vehicles.drop-item");
+        VEHICLES_COALESCE_DROPS = getEnum(config, "vehicles.coalesce-drops", DropCoalescer.Grouping.NONE,
+                                          "drop coalescing");
+        VEHICLES_COALESCE_DROPS_TICKS = config.getInt("vehicles.coalesce-drops-ticks");
+        VEHICLES_DROP_CONTAINER = parseLocation(config.getString("vehicles.drop-container", ""),
+                                                "vehicles.drop-container");
+        VEHICLES_TIMING = getEnum(config, "vehicles.timing", VehicleScanTask.Timing.WALL_CLOCK, "vehicle timing");
+        VEHICLES_BREAK_EMPTY = config.getBoolean("vehicles.break-empty");
+        VEHICLES_BREAK_EMPTY_SECONDS = config.getInt("vehicles.break-empty-seconds");
+
+        VEHICLES_BREAK_WITH_PASSENGER = config.getBoolean("vehicles.break-with-passenger");
+        VEHICLES_BREAK_WITH_PASSENGER_SECONDS = config.getInt("vehicles.break-with-passenger-seconds");
+        EnumSet<EntityType> breakWithPassengerTypes = EnumSet.noneOf(EntityType.class);
+        for (String typeName : config.getStringList("vehicles.break-with-passenger-types")) {
             try {
-                VEHICLES_BREAK_WITH_PASSENGER_TYPES.add(EntityType.valueOf(typeName));
+                breakWithPassengerTypes.add(EntityType.valueOf(typeName));
             } catch (IllegalArgumentException ex) {
                 getLogger().warning("Cannot break vehicles containing invalid entity type \"" + typeName + "\".");
             }
         }
+        VEHICLES_BREAK_WITH_PASSENGER_TYPES = Collections.unmodifiableSet(breakWithPassengerTypes);
+
+        VEHICLES_PROXIMITY_RADIUS = config.getDouble("vehicles.proximity.radius");
+        VEHICLES_PROXIMITY_FAR_BREAK_EMPTY_SECONDS = config.getInt("vehicles.proximity.far-break-empty-seconds");
 
-        VEHICLES_EXEMPT_WITH_NAMED_PASSENGER = getConfig().getBoolean("vehicles.exempt-with-named-passenger");
-        VEHICLES_EXEMPT_WITH_NAMED_PASSENGER_TYPES.clear();
-        for (String typeName : getConfig().getStringList("vehicles.exempt-with-named-passenger-types")) {
+        VEHICLES_BREAK_STATIONARY = config.getBoolean("vehicles.break-stationary");
+        VEHICLES_BREAK_STATIONARY_SECONDS = config.getInt("vehicles.break-stationary-seconds");
+
+        VEHICLES_EXEMPT_WITH_NAMED_PASSENGER = config.getBoolean("vehicles.exempt-with-named-passenger");
+        EnumSet<EntityType> exemptWithNamedPassengerTypes = EnumSet.noneOf(EntityType.class);
+        for (String typeName : config.getStringList("vehicles.exempt-with-named-passenger-types")) {
             try {
-                VEHICLES_EXEMPT_WITH_NAMED_PASSENGER_TYPES.add(EntityType.valueOf(typeName));
+                exemptWithNamedPassengerTypes.add(EntityType.valueOf(typeName));
             } catch (IllegalArgumentException ex) {
                 getLogger().warning("Cannot exempt invlid entity type \"" + typeName + "\" from vehicle breakage.");
             }
         }
+        VEHICLES_EXEMPT_WITH_NAMED_PASSENGER_TYPES = Collections.unmodifiableSet(exemptWithNamedPassengerTypes);
+        _breakablePassenger = buildPassengerTable(VEHICLES_BREAK_WITH_PASSENGER, VEHICLES_BREAK_WITH_PASSENGER_TYPES);
+        _exemptIfNamed = buildPassengerTable(VEHICLES_EXEMPT_WITH_NAMED_PASSENGER,
+                                             VEHICLES_EXEMPT_WITH_NAMED_PASSENGER_TYPES);
+
+        ConfigurationSection typesSection = config.getConfigurationSection("vehicles.types");
+        DEFAULT_WORLD_SETTINGS = WorldSettings.create(this, null, typesSection);
+        HashMap<String, WorldSettings> worldSettings = new HashMap<String, WorldSettings>();
+        ConfigurationSection worldsSection = config.getConfigurationSection("worlds");
+        if (worldsSection != null) {
+            for (String worldName : worldsSection.getKeys(false)) {
+                ConfigurationSection worldSection = worldsSection.getConfigurationSection(worldName);
+                worldSettings.put(worldName, WorldSettings.create(this, worldSection, typesSection));
+            }
+        }
+        WORLD_SETTINGS = Collections.unmodifiableMap(worldSettings);
+
+        TreeMap<String, Zone> zones = new TreeMap<String, Zone>();
+        HashMap<String, List<Zone>> worldZones = new HashMap<String, List<Zone>>();
+        ConfigurationSection zonesSection = config.getConfigurationSection("zones");
+        if (zonesSection != null) {
+            for (String zoneName : zonesSection.getKeys(false)) {
+                ConfigurationSection zoneSection = zonesSection.getConfigurationSection(zoneName);
+                Zone zone = (zoneSection != null) ? Zone.load(zoneName, zoneSection) : null;
+                if (zone != null) {
+                    zones.put(zoneName, zone);
+                    worldZones.computeIfAbsent(zone.world, k -> new ArrayList<Zone>()).add(zone);
+                }
+            }
+        }
+        ZONES = Collections.unmodifiableMap(zones);
+        HashMap<String, ZoneIndex> zoneIndexes = new HashMap<String, ZoneIndex>();
+        for (Map.Entry<String, List<Zone>> entry : worldZones.entrySet()) {
+            zoneIndexes.put(entry.getKey(), ZoneIndex.build(entry.getValue()));
+        }
+        ZONE_INDEXES = Collections.unmodifiableMap(zoneIndexes);
+
+        DENSITY_MAX_PER_CHUNK = config.getInt("density.max-per-chunk");
+        DENSITY_MAX_PER_BLOCK = config.getInt("density.max-per-block");
+        DENSITY_CULL_ORDER = getEnum(config, "density.cull-order", DensityControl.CullOrder.NEWEST,
+                                     "density cull order");
+
+        QUOTA_MAX_VEHICLES_PER_PLAYER = config.getInt("quota.max-vehicles-per-player");
+        QUOTA_ACTION = getEnum(config, "quota.action", OwnerQuota.Action.DENY, "quota action");
+
+        REMOVAL_MAX_PER_TICK = config.getInt("removal.max-per-tick");
+        REMOVAL_TICK_BUDGET_MICROS = config.getInt("removal.tick-budget-micros");
+
+        METRICS_PROMETHEUS_FILE = config.getString("metrics.prometheus-file", "");
+        METRICS_WRITE_PERIOD_SECONDS = config.getInt("metrics.write-period-seconds");
+
+        AUDIT_ENABLED = config.getBoolean("audit.enabled");
+        AUDIT_FORMAT = getEnum(config, "audit.format", AuditLog.Format.NDJSON, "audit format");
+        AUDIT_DIRECTORY = config.getString("audit.directory", "audit");
+        AUDIT_MAX_FILE_SIZE_KB = config.getInt("audit.max-file-size-kb");
+        AUDIT_MAX_FILES = config.getInt("audit.max-files");
 
         if (DEBUG_CONFIGURATION) {
             VehicleControl.PLUGIN.getLogger().info("Configuration: ");
             getLogger().info("DEBUG_OVERHEAD: " + DEBUG_OVERHEAD);
             getLogger().info("DEBUG_BREAK_VEHICLE: " + DEBUG_BREAK_VEHICLE);
             getLogger().info("DEBUG_EXEMPT_VEHICLE: " + DEBUG_EXEMPT_VEHICLE);
+            getLogger().info("RELOAD_WATCH_FILE: " + RELOAD_WATCH_FILE);
 
             getLogger().info("SCAN_PERIOD_SECONDS: " + SCAN_PERIOD_SECONDS);
-            StringBuilder scannedWorlds = new StringBuilder();
-            for (World world : SCAN_WORLDS) {
-                scannedWorlds.append(' ').append(world.getName());
-            }
-            getLogger().info("SCAN_WORLDS:" + scannedWorlds.toString());
+            getLogger().info("SCAN_TICK_BUDGET_MICROS: " + SCAN_TICK_BUDGET_MICROS);
+            getLogger().info("SCAN_ADAPTIVE: " + SCAN_ADAPTIVE);
+            getLogger().info("SCAN_ADAPTIVE_MIN_PERIOD_SECONDS: " + SCAN_ADAPTIVE_MIN_PERIOD_SECONDS);
+            getLogger().info("SCAN_ADAPTIVE_MAX_PERIOD_SECONDS: " + SCAN_ADAPTIVE_MAX_PERIOD_SECONDS);
+            getLogger().info("SCAN_ADAPTIVE_HIGH_POPULATION: " + SCAN_ADAPTIVE_HIGH_POPULATION);
+            getLogger().info("SCAN_ADAPTIVE_HIGH_GROWTH_PER_MINUTE: " + SCAN_ADAPTIVE_HIGH_GROWTH_PER_MINUTE);
+            getLogger().info("SCAN_ADAPTIVE_MSPT_LOW: " + SCAN_ADAPTIVE_MSPT_LOW);
+            getLogger().info("SCAN_ADAPTIVE_MSPT_HIGH: " + SCAN_ADAPTIVE_MSPT_HIGH);
+            getLogger().info("SCAN_ADAPTIVE_MIN_BUDGET_PERCENT: " + SCAN_ADAPTIVE_MIN_BUDGET_PERCENT);
+            getLogger().info("SCAN_OFFLOAD: " + SCAN_OFFLOAD);
+            getLogger().info("SCAN_OFFLOAD_THREADS: " + SCAN_OFFLOAD_THREADS);
+            getLogger().info("SCAN_LOAD_LEVEL: " + SCAN_LOAD_LEVEL);
+            getLogger().info("SCAN_LOAD_LEVEL_NON_TICKING_CYCLES: " + SCAN_LOAD_LEVEL_NON_TICKING_CYCLES);
+            getLogger().info("SCAN_WORLD_NAMES: " + String.join(" ", SCAN_WORLD_NAMES));
 
             getLogger().info("VEHICLES_REMOVE_ON_EXIT: " + VEHICLES_REMOVE_ON_EXIT);
             getLogger().info("VEHICLES_DROP_ITEM: " + VEHICLES_DROP_ITEM);
+            getLogger().info("VEHICLES_COALESCE_DROPS: " + VEHICLES_COALESCE_DROPS);
+            getLogger().info("VEHICLES_COALESCE_DROPS_TICKS: " + VEHICLES_COALESCE_DROPS_TICKS);
+            getLogger().info("VEHICLES_DROP_CONTAINER: " + VEHICLES_DROP_CONTAINER);
+            getLogger().info("VEHICLES_TIMING: " + VEHICLES_TIMING);
             getLogger().info("VEHICLES_BREAK_EMPTY: " + VEHICLES_BREAK_EMPTY);
             getLogger().info("VEHICLES_BREAK_EMPTY_SECONDS: " + VEHICLES_BREAK_EMPTY_SECONDS);
 
@@ -171,6 +550,11 @@ public class Configuration {
             getLogger().info("VEHICLES_BREAK_WITH_PASSENGER: " + VEHICLES_BREAK_WITH_PASSENGER);
             getLogger().info("VEHICLES_BREAK_WITH_PASSENGER_SECONDS: " + VEHICLES_BREAK_WITH_PASSENGER_SECONDS);
             getLogger().info("VEHICLES_BREAK_WITH_PASSENGER_TYPES:" + breakTypes.toString());
+            getLogger().info("VEHICLES_PROXIMITY_RADIUS: " + VEHICLES_PROXIMITY_RADIUS);
+            getLogger().info("VEHICLES_PROXIMITY_FAR_BREAK_EMPTY_SECONDS: " +
+                             VEHICLES_PROXIMITY_FAR_BREAK_EMPTY_SECONDS);
+            getLogger().info("VEHICLES_BREAK_STATIONARY: " + VEHICLES_BREAK_STATIONARY);
+            getLogger().info("VEHICLES_BREAK_STATIONARY_SECONDS: " + VEHICLES_BREAK_STATIONARY_SECONDS);
 
             StringBuilder exemptTypes = new StringBuilder();
             for (EntityType type : VEHICLES_EXEMPT_WITH_NAMED_PASSENGER_TYPES) {
@@ -178,9 +562,223 @@ public class Configuration {
             }
             getLogger().info("VEHICLES_EXEMPT_WITH_NAMED_PASSENGER: " + VEHICLES_EXEMPT_WITH_NAMED_PASSENGER);
             getLogger().info("VEHICLES_EXEMPT_WITH_NAMED_PASSENGER_TYPES:" + exemptTypes.toString());
+            for (EntityType type : EntityType.values()) {
+                VehiclePolicy policy = DEFAULT_WORLD_SETTINGS.getPolicy(type);
+                if (policy != null) {
+                    getLogger().info("VEHICLE_POLICY: " + policy);
+                }
+            }
+            for (Map.Entry<String, WorldSettings> entry : WORLD_SETTINGS.entrySet()) {
+                WorldSettings settings = entry.getValue();
+                getLogger().info("WORLD_SETTINGS " + entry.getKey() + ": period-seconds " + settings.periodSeconds +
+                                 ", break-with-passenger-seconds " + settings.breakWithPassengerSeconds);
+                for (EntityType type : EntityType.values()) {
+                    VehiclePolicy policy = settings.getPolicy(type);
+                    if (policy != null) {
+                        getLogger().info("WORLD_SETTINGS " + entry.getKey() + ": " + policy);
+                    }
+                }
+            }
+
+            for (Zone zone : ZONES.values()) {
+                getLogger().info("ZONE " + zone);
+            }
+
+            getLogger().info("DENSITY_MAX_PER_CHUNK: " + DENSITY_MAX_PER_CHUNK);
+            getLogger().info("DENSITY_MAX_PER_BLOCK: " + DENSITY_MAX_PER_BLOCK);
+            getLogger().info("DENSITY_CULL_ORDER: " + DENSITY_CULL_ORDER);
+            getLogger().info("QUOTA_MAX_VEHICLES_PER_PLAYER: " + QUOTA_MAX_VEHICLES_PER_PLAYER);
+            getLogger().info("QUOTA_ACTION: " + QUOTA_ACTION);
+            getLogger().info("REMOVAL_MAX_PER_TICK: " + REMOVAL_MAX_PER_TICK);
+            getLogger().info("REMOVAL_TICK_BUDGET_MICROS: " + REMOVAL_TICK_BUDGET_MICROS);
+
+            getLogger().info("METRICS_PROMETHEUS_FILE: " + METRICS_PROMETHEUS_FILE);
+            getLogger().info("METRICS_WRITE_PERIOD_SECONDS: " + METRICS_WRITE_PERIOD_SECONDS);
+
+            getLogger().info("AUDIT_ENABLED: " + AUDIT_ENABLED);
+            getLogger().info("AUDIT_FORMAT: " + AUDIT_FORMAT);
+            getLogger().info("AUDIT_DIRECTORY: " + AUDIT_DIRECTORY);
+            getLogger().info("AUDIT_MAX_FILE_SIZE_KB: " + AUDIT_MAX_FILE_SIZE_KB);
+            getLogger().info("AUDIT_MAX_FILES: " + AUDIT_MAX_FILES);
+
+        }
+    } // Configuration
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the settings of a world.
+     *
+     * @param world the world.
+     * @return the world's settings, or the default settings if the world has
+     *         no worlds.&lt;world&gt; section.
+     */
+    public WorldSettings getWorldSettings(World world) {
+        WorldSettings settings = WORLD_SETTINGS.get(world.getName());
+        return (settings != null) ? settings : DEFAULT_WORLD_SETTINGS;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the zones in a world.
+     *
+     * @param world the world.
+     * @return the index, or null if the world has no zones.
+     */
+    public ZoneIndex getZoneIndex(World world) {
+        return ZONE_INDEXES.get(world.getName());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the zone containing a location; where zones overlap, the
+     * smallest.
+     *
+     * @param loc the location.
+     * @return the zone, or null if the location is in no zone.
+     */
+    public Zone getZone(Location loc) {
+        ZoneIndex index = getZoneIndex(loc.getWorld());
+        return (index != null) ? index.find(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the policy of a vehicle type in a world.
+     *
+     * @param world the world.
+     * @param type  the entity type.
+     * @return the policy, or null if vehicles of that type are not managed in
+     *         that world.
+     */
+    public VehiclePolicy getPolicy(World world, EntityType type) {
+        return getWorldSettings(world).getPolicy(type);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a passenger of the specified type allows a vehicle to
+     * break, according to vehicles.break-with-passenger and
+     * vehicles.break-with-passenger-types.
+     *
+     * @param type the passenger's type.
+     * @return true if the passenger type is breakable.
+     */
+    public boolean isBreakablePassengerType(EntityType type) {
+        return _breakablePassenger[type.ordinal()];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a passenger of the specified type allows a vehicle to
+     * break.
+     *
+     * @param typeOrdinal the ordinal of the passenger's EntityType.
+     * @return true if the passenger type is breakable.
+     */
+    public boolean isBreakablePassengerType(int typeOrdinal) {
+        return _breakablePassenger[typeOrdinal];
+    }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a passenger of the specified type exempts a vehicle from
+     * breaking when the passenger is named, according to
+     * vehicles.exempt-with-named-passenger and
+     * vehicles.exempt-with-named-passenger-types.
+     *
+     * @param type the passenger's type.
+     * @return true if named passengers of the type are exempt.
+     */
+    public boolean isExemptIfNamedType(EntityType type) {
+        return _exemptIfNamed[type.ordinal()];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a passenger of the specified type exempts a vehicle from
+     * breaking when the passenger is named.
+     *
+     * @param typeOrdinal the ordinal of the passenger's EntityType.
+     * @return true if named passengers of the type are exempt.
+     */
+    public boolean isExemptIfNamedType(int typeOrdinal) {
+        return _exemptIfNamed[typeOrdinal];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Precompute a passenger decision table from a passenger setting.
+     *
+     * @param enabled true if the setting is enabled.
+     * @param types   the passenger types the setting applies to.
+     * @return a table of the decision for each type, indexed by EntityType
+     *         ordinal.
+     */
+    protected static boolean[] buildPassengerTable(boolean enabled, Set<EntityType> types) {
+        boolean[] table = new boolean[EntityType.values().length];
+        for (EntityType type : types) {
+            table[type.ordinal()] = enabled;
+        }
+        return table;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse an enumerated setting, case insensitively.
+     *
+     * @param config       the configuration.
+     * @param path         the path of the setting.
+     * @param defaultValue the value used if the setting is missing or
+     *                     invalid.
+     * @param description  a description of the setting, for warnings.
+     * @return the value of the setting.
+     */
+    protected static <E extends Enum<E>> E getEnum(ConfigurationSection config, String path, E defaultValue,
+                                                   String description) {
+        String name = config.getString(path);
+        if (name == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), name.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            getLogger().warning("Invalid " + description + " \"" + name + "\"; using " + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse a block location of the form "world,x,y,z".
+     *
+     * @param text    the text to parse.
+     * @param setting the name of the setting, for warnings.
+     * @return the location, or null if the text is empty or invalid.
+     */
+    protected static Location parseLocation(String text, String setting) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+
+        String[] parts = text.split(",");
+        if (parts.length == 4) {
+            World world = Bukkit.getWorld(parts[0].trim());
+            if (world == null) {
+                getLogger().warning("There is no world named \"" + parts[0].trim() + "\" for " + setting + ".");
+                return null;
+            }
+            try {
+                return new Location(world,
+                                    Integer.parseInt(parts[1].trim()),
+                                    Integer.parseInt(parts[2].trim()),
+                                    Integer.parseInt(parts[3].trim()));
+            } catch (NumberFormatException ex) {
+                // Fall through.
+            }
         }
-    } // reload
+        getLogger().warning("Invalid location \"" + text + "\" for " + setting + "; expected world,x,y,z.");
+        return null;
+    }
 
     // ------------------------------------------------------------------------
     /**
@@ -201,4 +799,17 @@ public class Configuration {
     protected static Logger getLogger() {
         return VehicleControl.PLUGIN.getLogger();
     }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Whether passengers of each type, indexed by EntityType ordinal, allow a
+     * vehicle to break.
+     */
+    private final boolean[] _breakablePassenger;
+
+    /**
+     * Whether named passengers of each type, indexed by EntityType ordinal,
+     * exempt a vehicle from breaking.
+     */
+    private final boolean[] _exemptIfNamed;
 } // class Configuration
\ No newline at end of file
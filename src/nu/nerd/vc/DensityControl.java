@@ -0,0 +1,301 @@
+package nu.nerd.vc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Vehicle;
+
+// ----------------------------------------------------------------------------
+/**
+ * Enforces limits on the number of vehicles per chunk and per block.
+ *
+ * The {@link VehicleIndex} reports the vehicle count of a chunk whenever it
+ * increases. Chunks whose count exceeds the smallest configured limit are
+ * queued, and each tick the queued chunks are examined, culling vehicles that
+ * exceed the limits. Only the entities in queued chunks are examined, so the
+ * cost is proportional to the number of vehicles being added to crowded
+ * chunks, rather than the total number of vehicles.
+ *
+ * Vehicles carrying players are never culled, but count towards the limits.
+ */
+public class DensityControl {
+    // ------------------------------------------------------------------------
+    /**
+     * The order in which vehicles are selected for culling.
+     */
+    public enum CullOrder {
+        /**
+         * Cull the most recently spawned vehicles first.
+         */
+        NEWEST,
+
+        /**
+         * Cull the vehicles that were tagged to break the longest time ago
+         * first, then untagged vehicles, newest first.
+         */
+        LONGEST_IDLE
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called by the {@link VehicleIndex} when the number of vehicles in a
+     * chunk increases.
+     *
+     * @param world    the world.
+     * @param chunkKey the chunk key.
+     * @param count    the new number of vehicles in the chunk.
+     */
+    public void onChunkCount(World world, long chunkKey, int count) {
+        int threshold = getThreshold();
+        if (threshold > 0 && count > threshold) {
+            _overloaded.computeIfAbsent(world.getUID(), k -> ConcurrentHashMap.newKeySet()).add(chunkKey);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Examine all chunks that may be overloaded, culling vehicles that exceed
+     * the configured limits.
+     *
+     * Called once per tick by the scan task. Each chunk is examined on the
+     * thread that owns it.
+     */
+    public void drain() {
+        for (Map.Entry<UUID, Set<Long>> entry : _overloaded.entrySet()) {
+            World world = Bukkit.getWorld(entry.getKey());
+            Iterator<Long> it = entry.getValue().iterator();
+            while (it.hasNext()) {
+                long chunkKey = it.next();
+                it.remove();
+                if (world != null && VehicleControl.SCAN_WORLDS.contains(world)) {
+                    int chunkX = VehicleIndex.chunkX(chunkKey);
+                    int chunkZ = VehicleIndex.chunkZ(chunkKey);
+                    VehicleControl.SCHEDULER.runForRegion(world, chunkX, chunkZ,
+                                                          () -> checkChunk(world, chunkX, chunkZ));
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cull vehicles in a chunk that exceed the per-chunk and per-block limits.
+     *
+     * @param world  the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    protected void checkChunk(World world, int chunkX, int chunkZ) {
+        if (!world.isChunkLoaded(chunkX, chunkZ)) {
+            return;
+        }
+
+        ArrayList<Vehicle> vehicles = new ArrayList<>();
+        for (Entity entity : world.getChunkAt(chunkX, chunkZ).getEntities()) {
+            // Vehicles already queued to break count as culled.
+            if (VehicleIndex.isTracked(entity) && entity.isValid() &&
+                !VehicleControl.REMOVALS.isQueued(entity.getUniqueId())) {
+                vehicles.add((Vehicle) entity);
+            }
+        }
+        vehicles.sort(getCullComparator());
+
+        int culled = 0;
+        int maxPerChunk = VehicleControl.CONFIG.DENSITY_MAX_PER_CHUNK;
+        if (maxPerChunk > 0 && vehicles.size() > maxPerChunk) {
+            culled += cull(vehicles, vehicles.size() - maxPerChunk);
+        }
+
+        int maxPerBlock = VehicleControl.CONFIG.DENSITY_MAX_PER_BLOCK;
+        if (maxPerBlock > 0 && vehicles.size() > maxPerBlock) {
+            HashMap<Long, List<Vehicle>> blocks = new HashMap<>();
+            for (Vehicle vehicle : vehicles) {
+                Location loc = vehicle.getLocation();
+                blocks.computeIfAbsent(blockKey(loc), k -> new ArrayList<>()).add(vehicle);
+            }
+            for (List<Vehicle> block : blocks.values()) {
+                if (block.size() > maxPerBlock) {
+                    culled += cull(block, block.size() - maxPerBlock);
+                }
+            }
+        }
+
+        if (culled > 0 && VehicleControl.CONFIG.DEBUG_BREAK_VEHICLE) {
+            VehicleControl.PLUGIN.getLogger().info("Culled " + culled + " vehicles in overloaded chunk " +
+                                                   world.getName() + " (" + chunkX + ", " + chunkZ + ")");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the chunk or block containing a vehicle still has more
+     * vehicles than the configured limits.
+     *
+     * Used to re-check a vehicle queued to break by a density limit when it
+     * leaves the {@link RemovalQueue}, since earlier removals or players may
+     * have relieved the overload in the meantime. Vehicles that have already
+     * been removed are not counted. This must be called on the thread that
+     * owns the vehicle.
+     *
+     * @param config  the configuration.
+     * @param vehicle the vehicle.
+     * @return true if the vehicle's chunk or block is overloaded.
+     */
+    public boolean isOverloaded(Configuration config, Vehicle vehicle) {
+        Location loc = vehicle.getLocation();
+        long vehicleBlockKey = blockKey(loc);
+        int chunkCount = 0;
+        int blockCount = 0;
+        for (Entity entity : loc.getWorld().getChunkAt(loc.getBlockX() >> 4, loc.getBlockZ() >> 4).getEntities()) {
+            if (VehicleIndex.isTracked(entity) && entity.isValid()) {
+                ++chunkCount;
+                if (blockKey(entity.getLocation()) == vehicleBlockKey) {
+                    ++blockCount;
+                }
+            }
+        }
+        return (config.DENSITY_MAX_PER_CHUNK > 0 && chunkCount > config.DENSITY_MAX_PER_CHUNK) ||
+               (config.DENSITY_MAX_PER_BLOCK > 0 && blockCount > config.DENSITY_MAX_PER_BLOCK);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Break up to the specified number of vehicles from a list, in list order,
+     * removing broken vehicles from the list.
+     *
+     * Vehicles with player passengers, and vehicles that
+     * {@link VehicleScanTask#breakVehicle(Configuration, Vehicle,
+     * RemovalQueue.Reason)} declines to break, are skipped. Broken vehicles
+     * are queued in the {@link RemovalQueue}.
+     *
+     * @param vehicles the candidate vehicles, in cull order.
+     * @param excess   the number of vehicles to break.
+     * @return the number of vehicles broken.
+     */
+    protected int cull(List<Vehicle> vehicles, int excess) {
+        Configuration config = VehicleControl.CONFIG;
+        int culled = 0;
+        Iterator<Vehicle> it = vehicles.iterator();
+        while (culled < excess && it.hasNext()) {
+            Vehicle vehicle = it.next();
+            if (!hasPlayerPassenger(vehicle) &&
+                VehicleControl.SCAN_TASK.breakVehicle(config, vehicle, RemovalQueue.Reason.DENSITY)) {
+                it.remove();
+                ++culled;
+            }
+        }
+        return culled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the smallest configured vehicle limit, or 0 if there are no
+     * limits.
+     *
+     * A chunk with more vehicles than this may need culling.
+     *
+     * @return the smallest configured vehicle limit, or 0 if there are no
+     *         limits.
+     */
+    protected int getThreshold() {
+        int maxPerChunk = VehicleControl.CONFIG.DENSITY_MAX_PER_CHUNK;
+        int maxPerBlock = VehicleControl.CONFIG.DENSITY_MAX_PER_BLOCK;
+        if (maxPerChunk <= 0) {
+            return Math.max(maxPerBlock, 0);
+        } else if (maxPerBlock <= 0) {
+            return maxPerChunk;
+        } else {
+            return Math.min(maxPerChunk, maxPerBlock);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a Comparator that sorts vehicles into the configured cull order,
+     * with the first vehicle to cull first.
+     *
+     * @return the Comparator.
+     */
+    protected Comparator<Vehicle> getCullComparator() {
+        Comparator<Vehicle> newest = Comparator.comparingInt(Vehicle::getTicksLived);
+        if (VehicleControl.CONFIG.DENSITY_CULL_ORDER == CullOrder.LONGEST_IDLE) {
+            return Comparator.comparingLong(this::getIdleSince).thenComparing(newest);
+        }
+        return newest;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the system time at which a vehicle was tagged to break, or
+     * Long.MAX_VALUE if it is not tagged.
+     *
+     * @param vehicle the vehicle.
+     * @return the system time at which the vehicle was tagged.
+     */
+    protected long getIdleSince(Vehicle vehicle) {
+        VehicleStateTable state = VehicleControl.STATE;
+        synchronized (state) {
+            int slot = state.find(vehicle.getUniqueId());
+            if (slot < 0) {
+                return Long.MAX_VALUE;
+            }
+            Configuration config = VehicleControl.CONFIG;
+            WorldSettings settings = config.getWorldSettings(vehicle.getWorld());
+            VehiclePolicy policy = settings.getPolicy(vehicle.getType());
+            int seconds = state.isOccupied(slot) ? settings.breakWithPassengerSeconds
+                                                 : (policy != null) ? policy.emptySeconds
+                                                                    : config.VEHICLES_BREAK_EMPTY_SECONDS;
+            return state.getTimeOut(slot) - 1000L * seconds;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the vehicle carries a player.
+     *
+     * @param vehicle the vehicle.
+     * @return true if the vehicle carries a player.
+     */
+    protected static boolean hasPlayerPassenger(Vehicle vehicle) {
+        if (!vehicle.isEmpty()) {
+            for (Entity passenger : vehicle.getPassengers()) {
+                if (passenger instanceof Player) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a key identifying the block containing a location within a
+     * world.
+     *
+     * @param loc the location.
+     * @return the block key.
+     */
+    protected static long blockKey(Location loc) {
+        return ((loc.getBlockX() & 0x3FFFFFFL) << 38) |
+               ((loc.getBlockZ() & 0x3FFFFFFL) << 12) |
+               (loc.getBlockY() & 0xFFFL);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from world UUID to the keys of chunks that may be overloaded.
+     */
+    private final ConcurrentHashMap<UUID, Set<Long>> _overloaded = new ConcurrentHashMap<>();
+} // class DensityControl
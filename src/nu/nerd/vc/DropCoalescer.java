@@ -0,0 +1,294 @@
+package nu.nerd.vc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Container;
+import org.bukkit.inventory.ItemStack;
+
+// ----------------------------------------------------------------------------
+/**
+ * Collects the items dropped by broken vehicles into piles, per chunk or per
+ * block, and drops each pile as a few merged stacks once it has been
+ * collecting for vehicles.coalesce-drops-ticks ticks.
+ *
+ * Clearing a cart farm would otherwise replace hundreds of vehicles with
+ * hundreds of item entities, all performing merge checks. Items are merged
+ * into stacks up to their maximum stack size, and each pile is dropped at one
+ * location, the location of the first vehicle broken into it.
+ *
+ * If vehicles.drop-container is set, piles are instead added to the inventory
+ * of the container at that location, with any items that don't fit dropped
+ * beside it. If the container's chunk is not loaded, or the block is not a
+ * container, piles are dropped where they were collected.
+ */
+public class DropCoalescer {
+    // ------------------------------------------------------------------------
+    /**
+     * How dropped items are grouped into piles.
+     */
+    public enum Grouping {
+        /**
+         * Items are dropped immediately where each vehicle broke.
+         */
+        NONE,
+
+        /**
+         * Items are collected per chunk.
+         */
+        CHUNK,
+
+        /**
+         * Items are collected per block.
+         */
+        BLOCK
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if vehicle items should be passed to
+     * {@link #add(Location, ItemStack)} rather than dropped immediately.
+     *
+     * @return true if drops are coalesced or sent to a container.
+     */
+    public boolean isEnabled() {
+        return VehicleControl.CONFIG.VEHICLES_COALESCE_DROPS != Grouping.NONE ||
+               VehicleControl.CONFIG.VEHICLES_DROP_CONTAINER != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add the item dropped by a broken vehicle to the pile at its location.
+     *
+     * This may be called from any region thread.
+     *
+     * @param loc  the location of the broken vehicle.
+     * @param item the item.
+     */
+    public void add(Location loc, ItemStack item) {
+        Map<Long, Pile> piles = _piles.computeIfAbsent(loc.getWorld().getUID(), k -> new ConcurrentHashMap<>());
+        long key = (VehicleControl.CONFIG.VEHICLES_COALESCE_DROPS == Grouping.BLOCK)
+            ? DensityControl.blockKey(loc)
+            : VehicleIndex.chunkKey(loc);
+        piles.compute(key, (k, pile) -> {
+            if (pile == null) {
+                pile = new Pile(loc, _ticks);
+            }
+            pile.add(item);
+            return pile;
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called once per tick by the scan task to deliver the piles that have
+     * finished collecting.
+     */
+    public void tick() {
+        ++_ticks;
+        deliver(VehicleControl.CONFIG.VEHICLES_COALESCE_DROPS_TICKS);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Deliver all piles, regardless of age.
+     *
+     * Called when the plugin is disabled, when no more tasks can be
+     * scheduled. Piles whose destination is owned by the current thread, which
+     * is always the case on servers with a single main thread, are delivered
+     * immediately; on region threaded servers, the rest are lost, and logged.
+     */
+    public void flush() {
+        deliver(0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Deliver the piles that have been collecting for at least the specified
+     * number of ticks.
+     *
+     * Piles are removed from the map atomically with respect to
+     * {@link #add(Location, ItemStack)}, so an item is either in a delivered
+     * pile or starts a new one.
+     *
+     * @param minAgeTicks the minimum age of delivered piles, in ticks.
+     */
+    protected void deliver(int minAgeTicks) {
+        for (Map<Long, Pile> piles : _piles.values()) {
+            for (Map.Entry<Long, Pile> entry : piles.entrySet()) {
+                Pile pile = entry.getValue();
+                if (_ticks - pile.createdTick >= minAgeTicks && piles.remove(entry.getKey(), pile)) {
+                    Location container = VehicleControl.CONFIG.VEHICLES_DROP_CONTAINER;
+                    if (container != null) {
+                        runAt(container, pile, () -> deposit(container, pile));
+                    } else {
+                        dropLater(pile);
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a pile to a container's inventory, dropping what doesn't fit beside
+     * the container.
+     *
+     * Runs on the thread that owns the container. If the container is
+     * unavailable, the pile is dropped where it was collected.
+     *
+     * @param container the location of the container.
+     * @param pile      the pile.
+     */
+    protected void deposit(Location container, Pile pile) {
+        World world = container.getWorld();
+        if (world == null || !world.isChunkLoaded(container.getBlockX() >> 4, container.getBlockZ() >> 4)) {
+            dropLater(pile);
+            return;
+        }
+
+        BlockState state = container.getBlock().getState(false);
+        if (!(state instanceof Container)) {
+            if (VehicleControl.CONFIG.DEBUG_BREAK_VEHICLE) {
+                VehicleControl.PLUGIN.getLogger().info("No container at vehicles.drop-container; dropping items.");
+            }
+            dropLater(pile);
+            return;
+        }
+
+        HashMap<Integer, ItemStack> leftovers =
+            ((Container) state).getInventory().addItem(pile.stacks.toArray(new ItemStack[0]));
+        Location beside = container.clone().add(0.5, 1, 0.5);
+        for (ItemStack item : leftovers.values()) {
+            world.dropItem(beside, item);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Drop a pile where it was collected, on the thread that owns that
+     * location.
+     *
+     * @param pile the pile.
+     */
+    protected void dropLater(Pile pile) {
+        Location loc = pile.location;
+        runAt(loc, pile, () -> {
+            World world = loc.getWorld();
+            if (Bukkit.getWorld(world.getUID()) != null) {
+                for (ItemStack item : pile.stacks) {
+                    world.dropItem(loc, item);
+                }
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task delivering a pile on the thread that owns a location.
+     *
+     * The task runs immediately if the current thread owns the location.
+     * Otherwise it is scheduled, unless the plugin is being disabled, in which
+     * case the pile is lost and a warning is logged.
+     *
+     * @param loc  the location.
+     * @param pile the pile.
+     * @param task the task.
+     */
+    protected void runAt(Location loc, Pile pile, Runnable task) {
+        World world = loc.getWorld();
+        int chunkX = loc.getBlockX() >> 4;
+        int chunkZ = loc.getBlockZ() >> 4;
+        if (VehicleControl.SCHEDULER.isOwnedByCurrentThread(world, chunkX, chunkZ)) {
+            task.run();
+        } else if (VehicleControl.PLUGIN.isEnabled()) {
+            VehicleControl.SCHEDULER.runForRegion(world, chunkX, chunkZ, task);
+        } else {
+            VehicleControl.PLUGIN.getLogger().warning("Unable to deliver " + pile.stacks.size() +
+                                                      " item stack(s) at " + world.getName() + " " +
+                                                      loc.getBlockX() + "," + loc.getBlockY() + "," +
+                                                      loc.getBlockZ() + " on shutdown.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Items collected at one location.
+     *
+     * Piles are only modified inside ConcurrentHashMap.compute(), so their
+     * contents are safely published to the delivering thread.
+     */
+    static final class Pile {
+        /**
+         * Constructor.
+         *
+         * @param location    where the pile is dropped.
+         * @param createdTick the tick when the pile was created.
+         */
+        Pile(Location location, long createdTick) {
+            this.location = location.clone();
+            this.createdTick = createdTick;
+        }
+
+        /**
+         * Add an item to the pile, merging it into a similar stack that has
+         * room for it, if there is one.
+         *
+         * @param item the item.
+         */
+        void add(ItemStack item) {
+            int remaining = item.getAmount();
+            for (ItemStack stack : stacks) {
+                if (remaining == 0) {
+                    break;
+                }
+                if (stack.isSimilar(item)) {
+                    int room = stack.getMaxStackSize() - stack.getAmount();
+                    int moved = Math.min(room, remaining);
+                    if (moved > 0) {
+                        stack.setAmount(stack.getAmount() + moved);
+                        remaining -= moved;
+                    }
+                }
+            }
+            if (remaining > 0) {
+                ItemStack stack = item.clone();
+                stack.setAmount(remaining);
+                stacks.add(stack);
+            }
+        }
+
+        /**
+         * Where the pile is dropped.
+         */
+        final Location location;
+
+        /**
+         * The tick when the pile was created.
+         */
+        final long createdTick;
+
+        /**
+         * The merged stacks.
+         */
+        final ArrayList<ItemStack> stacks = new ArrayList<>();
+    } // class Pile
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of calls to {@link #tick()}.
+     */
+    private volatile long _ticks;
+
+    /**
+     * Map from world UUID to map from chunk or block key to pile.
+     */
+    private final ConcurrentHashMap<UUID, Map<Long, Pile>> _piles = new ConcurrentHashMap<>();
+} // class DropCoalescer
@@ -0,0 +1,144 @@
+package nu.nerd.vc;
+
+// ----------------------------------------------------------------------------
+/**
+ * A histogram of durations with fixed bucket boundaries, suitable for export
+ * as a Prometheus histogram.
+ *
+ * Quantiles are estimated by linear interpolation within the bucket that
+ * contains them. The maximum is recorded exactly.
+ *
+ * All methods are synchronized, since the histogram is written by the scan
+ * task and read by commands and the metrics writer.
+ */
+public class DurationHistogram {
+    // ------------------------------------------------------------------------
+    /**
+     * Record a duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        double seconds = nanos * 1e-9;
+        int bucket = 0;
+        while (bucket < BOUNDS.length && seconds > BOUNDS[bucket]) {
+            ++bucket;
+        }
+        ++_counts[bucket];
+        ++_count;
+        _sumSeconds += seconds;
+        _maxSeconds = Math.max(_maxSeconds, seconds);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of recorded durations.
+     *
+     * @return the number of recorded durations.
+     */
+    public synchronized long getCount() {
+        return _count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sum of all recorded durations, in seconds.
+     *
+     * @return the sum of all recorded durations, in seconds.
+     */
+    public synchronized double getSumSeconds() {
+        return _sumSeconds;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the largest recorded duration, in seconds.
+     *
+     * @return the largest recorded duration, in seconds, or 0 if none.
+     */
+    public synchronized double getMaxSeconds() {
+        return _maxSeconds;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an estimate of the specified quantile, in seconds.
+     *
+     * @param quantile the quantile, in [0, 1].
+     * @return the estimated quantile in seconds, or 0 if no durations have
+     *         been recorded.
+     */
+    public synchronized double getQuantileSeconds(double quantile) {
+        if (_count == 0) {
+            return 0;
+        }
+
+        double rank = quantile * _count;
+        long cumulative = 0;
+        for (int bucket = 0; bucket < _counts.length; ++bucket) {
+            long inBucket = _counts[bucket];
+            if (inBucket != 0 && cumulative + inBucket >= rank) {
+                double lower = (bucket == 0) ? 0 : BOUNDS[bucket - 1];
+                double upper = (bucket < BOUNDS.length) ? BOUNDS[bucket] : _maxSeconds;
+                double estimate = lower + (upper - lower) * (rank - cumulative) / inBucket;
+                return Math.min(estimate, _maxSeconds);
+            }
+            cumulative += inBucket;
+        }
+        return _maxSeconds;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append the histogram in Prometheus text exposition format.
+     *
+     * The caller is responsible for the HELP and TYPE lines.
+     *
+     * @param out    the output.
+     * @param name   the metric name.
+     * @param labels the labels, in the form name="value", without braces.
+     */
+    public synchronized void appendPrometheus(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        for (int bucket = 0; bucket < BOUNDS.length; ++bucket) {
+            cumulative += _counts[bucket];
+            out.append(name).append("_bucket{").append(labels).append(",le=\"").append(BOUNDS[bucket])
+                .append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(_count).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(_sumSeconds).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(_count).append('\n');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Upper bounds of the buckets, in seconds. The last bucket has no upper
+     * bound.
+     */
+    private static final double[] BOUNDS = {
+        0.00005, 0.0001, 0.00025, 0.0005,
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+        0.1, 0.25, 0.5, 1.0, 2.5
+    };
+
+    /**
+     * Number of recorded durations in each bucket. The last element counts
+     * durations above the last bound.
+     */
+    private final long[] _counts = new long[BOUNDS.length + 1];
+
+    /**
+     * Total number of recorded durations.
+     */
+    private long _count;
+
+    /**
+     * Sum of recorded durations, in seconds.
+     */
+    private double _sumSeconds;
+
+    /**
+     * Largest recorded duration, in seconds.
+     */
+    private double _maxSeconds;
+} // class DurationHistogram
@@ -0,0 +1,103 @@
+package nu.nerd.vc;
+
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+// ----------------------------------------------------------------------------
+/**
+ * A queue of vehicle UUIDs ordered by the system time at which they are due
+ * to break.
+ *
+ * Entries are never removed or updated in place. When a vehicle's timeout
+ * changes, a new entry is added and the old one becomes stale. Stale entries
+ * are discarded by the caller when they are polled, by comparing their
+ * deadline with the vehicle's current timeout in the
+ * {@link VehicleStateTable}.
+ *
+ * All methods are synchronized, since on region threaded servers vehicles
+ * are tagged on multiple threads.
+ */
+public class ExpiryQueue {
+    // ------------------------------------------------------------------------
+    /**
+     * A vehicle UUID and the system time at which it is due.
+     */
+    public static final class Entry implements Comparable<Entry> {
+        /**
+         * Constructor.
+         *
+         * @param uuid     the UUID of the vehicle.
+         * @param deadline the system time at which the vehicle is due.
+         */
+        Entry(UUID uuid, long deadline) {
+            this.uuid = uuid;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         */
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(deadline, other.deadline);
+        }
+
+        /**
+         * The UUID of the vehicle.
+         */
+        public final UUID uuid;
+
+        /**
+         * The system time at which the vehicle is due.
+         */
+        public final long deadline;
+    } // class Entry
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a vehicle to the queue.
+     *
+     * @param uuid     the UUID of the vehicle.
+     * @param deadline the system time at which the vehicle is due.
+     */
+    public synchronized void add(UUID uuid, long deadline) {
+        _queue.add(new Entry(uuid, deadline));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove and return the earliest entry if it is due.
+     *
+     * @param now the current system time.
+     * @return the earliest entry if its deadline is at or before now, or null
+     *         if no entries are due.
+     */
+    public synchronized Entry pollDue(long now) {
+        Entry head = _queue.peek();
+        return (head != null && head.deadline <= now) ? _queue.poll() : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entries in the queue, including stale entries.
+     *
+     * @return the number of entries in the queue.
+     */
+    public synchronized int size() {
+        return _queue.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        _queue.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Entries ordered by ascending deadline.
+     */
+    private final PriorityQueue<Entry> _queue = new PriorityQueue<>();
+} // class ExpiryQueue
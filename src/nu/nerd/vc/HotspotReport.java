@@ -0,0 +1,156 @@
+package nu.nerd.vc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+// ----------------------------------------------------------------------------
+/**
+ * Reports the chunks with the most vehicles.
+ *
+ * The report is computed from the per-chunk counts that the
+ * {@link VehicleIndex} maintains incrementally from entity and vehicle
+ * events, so it costs one pass over the chunks that contain vehicles and never
+ * traverses a world's entities.
+ *
+ * The complete per-chunk histogram of every world can also be written to a
+ * CSV file in the plugin's folder for offline analysis. The counts are copied
+ * on the calling thread and written on an asynchronous thread.
+ */
+public class HotspotReport {
+    // ------------------------------------------------------------------------
+    /**
+     * Show the chunks of a world with the most vehicles.
+     *
+     * @param sender the command sender.
+     * @param world  the world.
+     * @param limit  the maximum number of chunks to list.
+     */
+    public void showHotspots(CommandSender sender, World world, int limit) {
+        long startNanos = System.nanoTime();
+        List<VehicleIndex.ChunkCount> hotspots = VehicleControl.INDEX.getHotspots(world, limit);
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        sender.sendMessage(ChatColor.GOLD + "Vehicle hotspots in " + ChatColor.YELLOW + world.getName() +
+                           ChatColor.GOLD + " (computed in " + String.format("%.3f", elapsedNanos * 1e-6) +
+                           " ms):");
+        if (hotspots.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + "No vehicles are loaded.");
+        }
+        for (int i = 0; i < hotspots.size(); ++i) {
+            VehicleIndex.ChunkCount count = hotspots.get(i);
+            int chunkX = VehicleIndex.chunkX(count.chunkKey);
+            int chunkZ = VehicleIndex.chunkZ(count.chunkKey);
+            sender.sendMessage(ChatColor.GOLD + "" + (i + 1) + ". " + ChatColor.YELLOW + count.total +
+                               ChatColor.GOLD + " in chunk " + ChatColor.YELLOW + chunkX + ", " + chunkZ +
+                               ChatColor.GOLD + " (block " + (16 * chunkX + 8) + ", " + (16 * chunkZ + 8) +
+                               "): " + ChatColor.YELLOW + formatCategories(count));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the vehicle counts of every chunk with vehicles, in every world,
+     * to a time stamped CSV file in the plugin's folder.
+     *
+     * The sender is told the name of the file once it has been written.
+     *
+     * @param sender the command sender.
+     * @param worlds the worlds to include.
+     */
+    public void dump(CommandSender sender, List<World> worlds) {
+        ArrayList<String> worldNames = new ArrayList<>();
+        ArrayList<List<VehicleIndex.ChunkCount>> worldCounts = new ArrayList<>();
+        for (World world : worlds) {
+            worldNames.add(world.getName());
+            worldCounts.add(VehicleControl.INDEX.getChunkCounts(world));
+        }
+
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path path = VehicleControl.PLUGIN.getDataFolder().toPath().resolve("hotspots-" + stamp + ".csv");
+        VehicleControl.SCHEDULER.runAsync(() -> {
+            try {
+                int rows = write(path, worldNames, worldCounts);
+                sender.sendMessage(ChatColor.GOLD + "Wrote " + rows + " chunks to " + path.getFileName() + ".");
+            } catch (IOException ex) {
+                sender.sendMessage(ChatColor.RED + "Unable to write " + path.getFileName() + ": " +
+                                   ex.getMessage());
+                VehicleControl.PLUGIN.getLogger().warning("Unable to write " + path + ": " + ex.getMessage());
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write chunk counts as CSV, with one row per chunk.
+     *
+     * @param path        the file to write.
+     * @param worldNames  the world names.
+     * @param worldCounts the chunk counts of each world in worldNames.
+     * @return the number of chunks written.
+     * @throws IOException if the file can't be written.
+     */
+    protected int write(Path path, List<String> worldNames, List<List<VehicleIndex.ChunkCount>> worldCounts)
+        throws IOException {
+        Files.createDirectories(path.getParent());
+        int rows = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("world,chunk_x,chunk_z,total");
+            for (String category : VehiclePolicy.CATEGORIES) {
+                writer.write(',');
+                writer.write(category);
+            }
+            writer.newLine();
+
+            for (int w = 0; w < worldNames.size(); ++w) {
+                for (VehicleIndex.ChunkCount count : worldCounts.get(w)) {
+                    writer.write(worldNames.get(w));
+                    writer.write(",");
+                    writer.write(Integer.toString(VehicleIndex.chunkX(count.chunkKey)));
+                    writer.write(",");
+                    writer.write(Integer.toString(VehicleIndex.chunkZ(count.chunkKey)));
+                    writer.write(",");
+                    writer.write(Integer.toString(count.total));
+                    for (int category : count.categories) {
+                        writer.write(',');
+                        writer.write(Integer.toString(category));
+                    }
+                    writer.newLine();
+                    ++rows;
+                }
+            }
+        }
+        return rows;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format the non-zero category counts of a chunk, e.g.
+     * "12 minecart, 3 boat".
+     *
+     * @param count the chunk count.
+     * @return the formatted counts.
+     */
+    protected static String formatCategories(VehicleIndex.ChunkCount count) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < count.categories.length; ++i) {
+            if (count.categories[i] > 0) {
+                if (s.length() > 0) {
+                    s.append(", ");
+                }
+                s.append(count.categories[i]).append(' ').append(VehiclePolicy.CATEGORIES[i]);
+            }
+        }
+        return (s.length() > 0) ? s.toString() : "other";
+    }
+} // class HotspotReport
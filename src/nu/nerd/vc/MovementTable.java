@@ -0,0 +1,202 @@
+package nu.nerd.vc;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+// ----------------------------------------------------------------------------
+/**
+ * Records the last block position of each sampled vehicle and the system time
+ * when it moved to that block.
+ *
+ * Like the {@link VehicleStateTable}, this is an open-addressed hash table
+ * with linear probing, keyed by the two halves of the vehicle's UUID and
+ * stored in parallel primitive arrays, so that sampling a vehicle is a single
+ * probe with no allocation. The memory footprint per vehicle is a small
+ * constant, reported by {@link #getMemoryBytes()}.
+ *
+ * The table only holds loaded vehicles; entries are removed when vehicles are
+ * removed from the {@link VehicleIndex}. All methods synchronize on the table.
+ */
+public class MovementTable {
+    // ------------------------------------------------------------------------
+    /**
+     * Record the block position of a vehicle and return the system time since
+     * which it has been in that block.
+     *
+     * A vehicle sampled for the first time is considered to have just moved.
+     *
+     * @param uuid     the vehicle's UUID.
+     * @param blockKey the key of the block containing the vehicle.
+     * @param now      the current system time.
+     * @return the system time when the vehicle moved into the block.
+     */
+    public synchronized long update(UUID uuid, long blockKey, long now) {
+        if (2 * (_size + 1) > _used.length) {
+            resize(2 * _used.length);
+        }
+
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = _used.length - 1;
+        int slot = VehicleStateTable.hash(msb, lsb) & mask;
+        while (_used[slot] && (_msb[slot] != msb || _lsb[slot] != lsb)) {
+            slot = (slot + 1) & mask;
+        }
+        if (!_used[slot]) {
+            ++_size;
+            _used[slot] = true;
+            _msb[slot] = msb;
+            _lsb[slot] = lsb;
+        } else if (_blockKey[slot] == blockKey) {
+            return _movedTime[slot];
+        }
+        _blockKey[slot] = blockKey;
+        _movedTime[slot] = now;
+        return now;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the entry of a vehicle.
+     *
+     * Entries following the removed slot in the same probe sequence are
+     * shifted back, so that no tombstones are required.
+     *
+     * @param uuid the vehicle's UUID.
+     */
+    public synchronized void remove(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = _used.length - 1;
+        int slot = VehicleStateTable.hash(msb, lsb) & mask;
+        while (_used[slot] && (_msb[slot] != msb || _lsb[slot] != lsb)) {
+            slot = (slot + 1) & mask;
+        }
+        if (!_used[slot]) {
+            return;
+        }
+
+        int hole = slot;
+        for (int next = (hole + 1) & mask; _used[next]; next = (next + 1) & mask) {
+            int home = VehicleStateTable.hash(_msb[next], _lsb[next]) & mask;
+            // Move next into the hole if its home slot is not cyclically in
+            // (hole, next].
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                _msb[hole] = _msb[next];
+                _lsb[hole] = _lsb[next];
+                _blockKey[hole] = _blockKey[next];
+                _movedTime[hole] = _movedTime[next];
+                hole = next;
+            }
+        }
+        _used[hole] = false;
+        --_size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of vehicles in the table.
+     *
+     * @return the number of vehicles in the table.
+     */
+    public synchronized int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the approximate number of bytes of heap used by the table's
+     * arrays.
+     *
+     * @return the approximate number of bytes of heap used by the table.
+     */
+    public synchronized long getMemoryBytes() {
+        return (long) _used.length * BYTES_PER_SLOT;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all vehicles.
+     */
+    public synchronized void clear() {
+        Arrays.fill(_used, false);
+        _size = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rehash all entries into arrays of the specified capacity.
+     *
+     * @param capacity the new capacity; must be a power of two.
+     */
+    protected void resize(int capacity) {
+        long[] oldMsb = _msb;
+        long[] oldLsb = _lsb;
+        long[] oldBlockKey = _blockKey;
+        long[] oldMovedTime = _movedTime;
+        boolean[] oldUsed = _used;
+
+        _msb = new long[capacity];
+        _lsb = new long[capacity];
+        _blockKey = new long[capacity];
+        _movedTime = new long[capacity];
+        _used = new boolean[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldUsed.length; ++i) {
+            if (oldUsed[i]) {
+                int slot = VehicleStateTable.hash(oldMsb[i], oldLsb[i]) & mask;
+                while (_used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                _msb[slot] = oldMsb[i];
+                _lsb[slot] = oldLsb[i];
+                _blockKey[slot] = oldBlockKey[i];
+                _movedTime[slot] = oldMovedTime[i];
+                _used[slot] = true;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Bytes of array storage per slot: two UUID halves, the block key, the
+     * time stamp and the used flag.
+     */
+    private static final int BYTES_PER_SLOT = 8 + 8 + 8 + 8 + 1;
+
+    /**
+     * Initial capacity of the table; must be a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Most significant bits of the UUID of the vehicle in each slot.
+     */
+    private long[] _msb = new long[INITIAL_CAPACITY];
+
+    /**
+     * Least significant bits of the UUID of the vehicle in each slot.
+     */
+    private long[] _lsb = new long[INITIAL_CAPACITY];
+
+    /**
+     * Key of the block last occupied by the vehicle in each slot.
+     */
+    private long[] _blockKey = new long[INITIAL_CAPACITY];
+
+    /**
+     * System time when the vehicle in each slot moved into its block.
+     */
+    private long[] _movedTime = new long[INITIAL_CAPACITY];
+
+    /**
+     * True if the slot is occupied.
+     */
+    private boolean[] _used = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * Number of vehicles in the table.
+     */
+    private int _size;
+} // class MovementTable
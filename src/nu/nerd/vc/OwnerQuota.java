@@ -0,0 +1,389 @@
+package nu.nerd.vc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.NamespacedKey;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Vehicle;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityPlaceEvent;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+// ----------------------------------------------------------------------------
+/**
+ * Records which player placed each vehicle and limits the number of loaded
+ * vehicles each player owns.
+ *
+ * When a player places a vehicle, the player's UUID and the placement time are
+ * stored in the vehicle's persistent data. The {@link VehicleIndex} reports
+ * every vehicle it adds or removes, whether by placement, a VehicleCreateEvent
+ * or a chunk load, so owner counts are maintained incrementally from the
+ * persistent data of loaded vehicles, without scanning.
+ *
+ * When a player reaches quota.max-vehicles-per-player, further placements are
+ * either denied or allowed with the player's oldest loaded vehicles queued to
+ * break through {@link VehicleScanTask#breakVehicle(Configuration, Vehicle,
+ * RemovalQueue.Reason)}. Players with the vehiclecontrol.quota.bypass
+ * permission are not limited.
+ */
+public class OwnerQuota implements Listener {
+    // ------------------------------------------------------------------------
+    /**
+     * What to do when a player who is at the quota places another vehicle.
+     */
+    public enum Action {
+        /**
+         * Cancel the placement.
+         */
+        DENY,
+
+        /**
+         * Allow the placement and break the player's oldest vehicles.
+         */
+        BREAK_OLDEST
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start counting a vehicle against its owner, if it has one.
+     *
+     * Called by the {@link VehicleIndex} when a vehicle is indexed.
+     *
+     * @param vehicle the vehicle.
+     */
+    public void onAdd(Vehicle vehicle) {
+        PersistentDataContainer pdc = vehicle.getPersistentDataContainer();
+        String owner = pdc.get(OWNER_KEY, PersistentDataType.STRING);
+        if (owner != null) {
+            try {
+                long placed = pdc.getOrDefault(PLACED_KEY, PersistentDataType.LONG, 0L);
+                add(vehicle.getUniqueId(), new Owned(UUID.fromString(owner), placed));
+            } catch (IllegalArgumentException ex) {
+                // Not a valid UUID. Treat the vehicle as unowned.
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop counting a vehicle against its owner.
+     *
+     * Called by the {@link VehicleIndex} when a vehicle is removed from the
+     * index.
+     *
+     * @param uuid the vehicle's UUID.
+     */
+    public void onRemove(UUID uuid) {
+        Owned owned = _vehicles.remove(uuid);
+        if (owned != null) {
+            _counts.computeIfPresent(owned.owner, (k, count) -> (count > 1) ? count - 1 : null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of loaded vehicles owned by a player.
+     *
+     * @param owner the player's UUID.
+     * @return the number of loaded vehicles.
+     */
+    public int getCount(UUID owner) {
+        return _counts.getOrDefault(owner, 0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the owner of a loaded vehicle.
+     *
+     * @param vehicle the vehicle's UUID.
+     * @return the owner's UUID, or null if the vehicle has no owner.
+     */
+    public UUID getOwner(UUID vehicle) {
+        Owned owned = _vehicles.get(vehicle);
+        return (owned != null) ? owned.owner : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a player owns more loaded vehicles than the quota.
+     *
+     * @param config the configuration.
+     * @param owner  the player's UUID, or null.
+     * @return true if the player is over the quota.
+     */
+    public boolean isOverQuota(Configuration config, UUID owner) {
+        int quota = config.QUOTA_MAX_VEHICLES_PER_PLAYER;
+        return owner != null && quota > 0 && getCount(owner) > quota;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Deny the placement of a vehicle by a player who is at the quota, if
+     * configured to do so.
+     */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onEntityPlaceCheck(EntityPlaceEvent event) {
+        Configuration config = VehicleControl.CONFIG;
+        Player player = event.getPlayer();
+        if (config.QUOTA_ACTION != Action.DENY || !isLimited(config, player) ||
+            !VehicleIndex.isTracked(event.getEntity())) {
+            return;
+        }
+
+        int count = getCount(player.getUniqueId());
+        if (count >= config.QUOTA_MAX_VEHICLES_PER_PLAYER) {
+            event.setCancelled(true);
+            player.sendMessage(ChatColor.RED + "You can't place more than " + config.QUOTA_MAX_VEHICLES_PER_PLAYER +
+                               " vehicles in loaded chunks.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the owner of a placed vehicle and enforce the quota.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityPlace(EntityPlaceEvent event) {
+        Entity entity = event.getEntity();
+        Player player = event.getPlayer();
+        if (player == null || !VehicleIndex.isTracked(entity)) {
+            return;
+        }
+
+        UUID owner = player.getUniqueId();
+        long placed = System.currentTimeMillis();
+        PersistentDataContainer pdc = entity.getPersistentDataContainer();
+        pdc.set(OWNER_KEY, PersistentDataType.STRING, owner.toString());
+        pdc.set(PLACED_KEY, PersistentDataType.LONG, placed);
+
+        // The entity may already be indexed, in which case it was not yet
+        // counted.
+        if (VehicleControl.INDEX.getVehicle(entity.getUniqueId()) != null) {
+            add(entity.getUniqueId(), new Owned(owner, placed));
+        }
+
+        Configuration config = VehicleControl.CONFIG;
+        if (config.QUOTA_ACTION == Action.BREAK_OLDEST && isLimited(config, player) && _pending.add(owner)) {
+            // Enforce once the vehicle has been added to the world.
+            VehicleControl.SCHEDULER.runGlobal(() -> {
+                _pending.remove(owner);
+                breakOldest(owner);
+            });
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue a player's oldest loaded vehicles to break until the player is
+     * within the quota.
+     *
+     * The player's vehicles are found by a pass over the owned vehicles, which
+     * only happens when the player exceeds the quota. Vehicles that are
+     * already queued to break count as broken. Vehicles that can't be broken,
+     * because of their type or contents, are passed over in favour of the
+     * next oldest.
+     *
+     * @param owner the player's UUID.
+     */
+    protected void breakOldest(UUID owner) {
+        int quota = VehicleControl.CONFIG.QUOTA_MAX_VEHICLES_PER_PLAYER;
+        if (quota <= 0 || getCount(owner) <= quota) {
+            return;
+        }
+
+        ArrayList<Map.Entry<UUID, Owned>> owned = new ArrayList<>();
+        for (Map.Entry<UUID, Owned> entry : _vehicles.entrySet()) {
+            if (entry.getValue().owner.equals(owner) && !VehicleControl.REMOVALS.isQueued(entry.getKey())) {
+                owned.add(entry);
+            }
+        }
+        owned.sort(Comparator.comparingLong(entry -> entry.getValue().placed));
+
+        ArrayList<UUID> oldest = new ArrayList<>(owned.size());
+        for (Map.Entry<UUID, Owned> entry : owned) {
+            oldest.add(entry.getKey());
+        }
+        breakOldest(owner, oldest, 0, owned.size() - quota, 0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Continue queueing a player's oldest vehicles to break, from a position
+     * in the list, until the excess has been queued or the list is exhausted.
+     *
+     * Whether a vehicle can be broken is only known on the thread that owns
+     * it, so on region threaded servers each vehicle is tried in a task on
+     * its own thread, which then continues with the next vehicle.
+     *
+     * @param owner  the player's UUID.
+     * @param oldest the UUIDs of the player's vehicles, oldest first.
+     * @param start  the index in oldest of the next vehicle to try.
+     * @param excess the number of vehicles to queue.
+     * @param queued the number of vehicles queued so far.
+     */
+    protected void breakOldest(UUID owner, List<UUID> oldest, int start, int excess, int queued) {
+        int i = start;
+        while (queued < excess && i < oldest.size()) {
+            Vehicle vehicle = VehicleControl.INDEX.getVehicle(oldest.get(i++));
+            if (vehicle == null) {
+                continue;
+            }
+            if (VehicleControl.SCHEDULER.isRegionThreaded()) {
+                int next = i;
+                int queuedBefore = queued;
+                VehicleControl.SCHEDULER.runForEntity(vehicle, () -> {
+                    int total = queuedBefore + (tryBreak(vehicle) ? 1 : 0);
+                    breakOldest(owner, oldest, next, excess, total);
+                });
+                return;
+            }
+            if (tryBreak(vehicle)) {
+                ++queued;
+            }
+        }
+
+        if (queued > 0 && VehicleControl.CONFIG.DEBUG_BREAK_VEHICLE) {
+            VehicleControl.PLUGIN.getLogger().info("Queued " + queued + " of " + excess + " excess vehicles of " +
+                                                   owner + " to break; quota " +
+                                                   VehicleControl.CONFIG.QUOTA_MAX_VEHICLES_PER_PLAYER);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue a vehicle to break for exceeding the quota, if it can be broken.
+     *
+     * This must be called on the thread that owns the vehicle.
+     *
+     * @param vehicle the vehicle.
+     * @return true if the vehicle was queued to break.
+     */
+    protected boolean tryBreak(Vehicle vehicle) {
+        return vehicle.isValid() &&
+               VehicleControl.SCAN_TASK.breakVehicle(VehicleControl.CONFIG, vehicle, RemovalQueue.Reason.QUOTA);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show the players who own the most loaded vehicles.
+     *
+     * @param sender the command sender.
+     * @param limit  the maximum number of players to list.
+     */
+    public void showOwners(CommandSender sender, int limit) {
+        List<Map.Entry<UUID, Integer>> counts = new ArrayList<>(_counts.entrySet());
+        counts.sort(Map.Entry.<UUID, Integer> comparingByValue().reversed());
+
+        int quota = VehicleControl.CONFIG.QUOTA_MAX_VEHICLES_PER_PLAYER;
+        sender.sendMessage(ChatColor.GOLD + "Owners of loaded vehicles" +
+                           ((quota > 0) ? " (quota " + quota + ")" : "") + ":");
+        if (counts.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + "No vehicles with owners are loaded.");
+        }
+        for (int i = 0; i < Math.min(limit, counts.size()); ++i) {
+            Map.Entry<UUID, Integer> entry = counts.get(i);
+            OfflinePlayer player = Bukkit.getOfflinePlayer(entry.getKey());
+            String name = (player.getName() != null) ? player.getName() : entry.getKey().toString();
+            sender.sendMessage(ChatColor.GOLD + "" + (i + 1) + ". " + ChatColor.YELLOW + name +
+                               ChatColor.GOLD + ": " + ChatColor.YELLOW + entry.getValue());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count a vehicle against its owner, unless it is already counted.
+     *
+     * @param uuid  the vehicle's UUID.
+     * @param owned the owner and placement time.
+     */
+    protected void add(UUID uuid, Owned owned) {
+        if (_vehicles.putIfAbsent(uuid, owned) == null) {
+            _counts.merge(owned.owner, 1, Integer::sum);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the quota applies to a player.
+     *
+     * @param config the configuration.
+     * @param player the player; may be null.
+     * @return true if the player is limited by the quota.
+     */
+    protected static boolean isLimited(Configuration config, Player player) {
+        return player != null && config.QUOTA_MAX_VEHICLES_PER_PLAYER > 0 &&
+               !player.hasPermission(BYPASS_PERMISSION);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The owner and placement time of a loaded vehicle.
+     */
+    static final class Owned {
+        /**
+         * Constructor.
+         *
+         * @param owner  the UUID of the player who placed the vehicle.
+         * @param placed the system time when the vehicle was placed.
+         */
+        Owned(UUID owner, long placed) {
+            this.owner = owner;
+            this.placed = placed;
+        }
+
+        /**
+         * The UUID of the player who placed the vehicle.
+         */
+        final UUID owner;
+
+        /**
+         * The system time when the vehicle was placed.
+         */
+        final long placed;
+    } // class Owned
+
+    // ------------------------------------------------------------------------
+    /**
+     * Permission that exempts a player from the quota.
+     */
+    public static final String BYPASS_PERMISSION = "vehiclecontrol.quota.bypass";
+
+    /**
+     * Persistent data key of the UUID of the player who placed a vehicle.
+     */
+    private static final NamespacedKey OWNER_KEY = NamespacedKey.fromString("vehiclecontrol:owner");
+
+    /**
+     * Persistent data key of the system time when a vehicle was placed.
+     */
+    private static final NamespacedKey PLACED_KEY = NamespacedKey.fromString("vehiclecontrol:placed");
+
+    /**
+     * Map from UUID of loaded, owned vehicle to its owner and placement time.
+     */
+    private final ConcurrentHashMap<UUID, Owned> _vehicles = new ConcurrentHashMap<>();
+
+    /**
+     * Map from owner UUID to the number of loaded vehicles owned.
+     */
+    private final ConcurrentHashMap<UUID, Integer> _counts = new ConcurrentHashMap<>();
+
+    /**
+     * Owners for whom quota enforcement is scheduled.
+     */
+    private final Set<UUID> _pending = ConcurrentHashMap.newKeySet();
+} // class OwnerQuota
@@ -0,0 +1,155 @@
+package nu.nerd.vc;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Vehicle;
+
+// ----------------------------------------------------------------------------
+/**
+ * Caches a summary of the passengers of each occupied vehicle: their entity
+ * types, which of them are named and whether any is a player.
+ *
+ * The server builds a new list on every call to getPassengers(), so the scan
+ * reads the summary instead. A vehicle's entry is read from its passenger
+ * list the first time it is needed, and discarded when a passenger gets in or
+ * out, when a passenger is interacted with (e.g. named with a name tag) and
+ * when the vehicle is removed from the {@link VehicleIndex}. An occupied
+ * vehicle whose passengers have not changed is therefore checked without
+ * allocating.
+ *
+ * Decisions based on a summary that has become stale by other means are
+ * harmless: before a vehicle is broken, the {@link RemovalQueue} re-checks
+ * its actual passengers.
+ */
+public class PassengerCache {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the summary of a vehicle's passengers.
+     *
+     * This must be called on the thread that owns the vehicle.
+     *
+     * @param vehicle the vehicle.
+     * @return the summary.
+     */
+    public Passengers get(Vehicle vehicle) {
+        UUID uuid = vehicle.getUniqueId();
+        Passengers passengers = _vehicles.get(uuid);
+        if (passengers == null) {
+            passengers = new Passengers(vehicle.getPassengers());
+            _vehicles.put(uuid, passengers);
+        }
+        return passengers;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the summary of a vehicle's passengers, because they are about
+     * to change or the vehicle is no longer loaded.
+     *
+     * @param uuid the vehicle's UUID.
+     */
+    public void invalidate(UUID uuid) {
+        _vehicles.remove(uuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of cached summaries.
+     *
+     * @return the number of cached summaries.
+     */
+    public int size() {
+        return _vehicles.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An immutable summary of the passengers of a vehicle, in the order of
+     * getPassengers().
+     */
+    public static final class Passengers {
+        /**
+         * Constructor.
+         *
+         * @param passengers the passengers.
+         */
+        Passengers(List<Entity> passengers) {
+            int count = passengers.size();
+            int[] types = new int[count];
+            boolean[] named = new boolean[count];
+            boolean player = false;
+            for (int i = 0; i < count; ++i) {
+                Entity passenger = passengers.get(i);
+                types[i] = passenger.getType().ordinal();
+                named[i] = passenger.getCustomName() != null;
+                player |= passenger instanceof Player;
+            }
+            _types = types;
+            _named = named;
+            _player = player;
+        }
+
+        /**
+         * Return the number of passengers.
+         *
+         * @return the number of passengers.
+         */
+        public int size() {
+            return _types.length;
+        }
+
+        /**
+         * Return the EntityType ordinal of a passenger.
+         *
+         * @param i the index of the passenger.
+         * @return the ordinal.
+         */
+        public int getType(int i) {
+            return _types[i];
+        }
+
+        /**
+         * Return true if a passenger has a custom name.
+         *
+         * @param i the index of the passenger.
+         * @return true if named.
+         */
+        public boolean isNamed(int i) {
+            return _named[i];
+        }
+
+        /**
+         * Return true if any passenger is a player.
+         *
+         * @return true if any passenger is a player.
+         */
+        public boolean hasPlayer() {
+            return _player;
+        }
+
+        /**
+         * EntityType ordinals of the passengers.
+         */
+        private final int[] _types;
+
+        /**
+         * Whether each passenger has a custom name.
+         */
+        private final boolean[] _named;
+
+        /**
+         * True if any passenger is a player.
+         */
+        private final boolean _player;
+    } // class Passengers
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from vehicle UUID to the summary of its passengers.
+     */
+    private final ConcurrentHashMap<UUID, Passengers> _vehicles = new ConcurrentHashMap<>();
+} // class PassengerCache
@@ -0,0 +1,228 @@
+package nu.nerd.vc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * An immutable spatial hash of online player positions, used to tell whether
+ * a vehicle is within a fixed horizontal radius of any player.
+ *
+ * Each world's players are bucketed into square cells whose side is the
+ * radius, so any player within the radius of a point is in the point's cell
+ * or one of its eight neighbours. A lookup therefore probes at most nine
+ * cells and examines only the players in them, regardless of the total number
+ * of players. Cells are stored in an open-addressed table of primitive keys
+ * with players chained through an index array, so lookups don't allocate.
+ *
+ * A new grid is built at the start of each scan cycle and then only read, so
+ * it can be shared between region threads. On region threaded servers, the
+ * positions are published by tasks on the players' own region threads (see
+ * {@link VehicleScanTask#samplePlayers(double)}).
+ */
+public class PlayerGrid {
+    // ------------------------------------------------------------------------
+    /**
+     * Build a grid of the specified players.
+     *
+     * This reads the players' locations, so it must only be called where
+     * that is allowed: on the main thread of a server without region
+     * threading.
+     *
+     * @param players the players.
+     * @param radius  the proximity radius in blocks; must be positive.
+     * @return the grid.
+     */
+    public static PlayerGrid build(Collection<? extends Player> players, double radius) {
+        ArrayList<Location> locations = new ArrayList<>(players.size());
+        for (Player player : players) {
+            locations.add(player.getLocation());
+        }
+        return fromLocations(locations, radius);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Build a grid of player locations that have already been read.
+     *
+     * @param locations the player locations.
+     * @param radius    the proximity radius in blocks; must be positive.
+     * @return the grid.
+     */
+    public static PlayerGrid fromLocations(Collection<Location> locations, double radius) {
+        HashMap<UUID, List<Location>> byWorld = new HashMap<>();
+        for (Location loc : locations) {
+            byWorld.computeIfAbsent(loc.getWorld().getUID(), k -> new ArrayList<>()).add(loc);
+        }
+
+        PlayerGrid grid = new PlayerGrid(radius);
+        for (Map.Entry<UUID, List<Location>> entry : byWorld.entrySet()) {
+            grid._worlds.put(entry.getKey(), new WorldGrid(entry.getValue(), radius));
+        }
+        return grid;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any player is within the radius, measured horizontally,
+     * of the specified position.
+     *
+     * @param world the world.
+     * @param x     the X coordinate.
+     * @param z     the Z coordinate.
+     * @return true if a player is within the radius.
+     */
+    public boolean isNear(World world, double x, double z) {
+        WorldGrid grid = _worlds.get(world.getUID());
+        return grid != null && grid.isNear(x, z, _radius);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the proximity radius.
+     *
+     * @return the radius in blocks.
+     */
+    public double getRadius() {
+        return _radius;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param radius the proximity radius in blocks.
+     */
+    protected PlayerGrid(double radius) {
+        _radius = radius;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The players of one world.
+     */
+    static final class WorldGrid {
+        /**
+         * Constructor.
+         *
+         * @param locations the player locations.
+         * @param cellSize  the side of a cell in blocks.
+         */
+        WorldGrid(List<Location> locations, double cellSize) {
+            int count = locations.size();
+            int capacity = Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+            _mask = capacity - 1;
+            _cellSize = cellSize;
+            _keys = new long[capacity];
+            _heads = new int[capacity];
+            _next = new int[count];
+            _x = new double[count];
+            _z = new double[count];
+
+            // Heads and next hold index + 1, with 0 marking an empty slot or
+            // the end of a chain.
+            for (int i = 0; i < count; ++i) {
+                Location loc = locations.get(i);
+                _x[i] = loc.getX();
+                _z[i] = loc.getZ();
+                long key = cellKey(cell(_x[i]), cell(_z[i]));
+                int slot = find(key);
+                if (_heads[slot] == 0) {
+                    _keys[slot] = key;
+                }
+                _next[i] = _heads[slot];
+                _heads[slot] = i + 1;
+            }
+        }
+
+        /**
+         * Return true if any player is within the radius of the position.
+         *
+         * @param x      the X coordinate.
+         * @param z      the Z coordinate.
+         * @param radius the radius.
+         * @return true if a player is within the radius.
+         */
+        boolean isNear(double x, double z, double radius) {
+            double radiusSquared = radius * radius;
+            int cellX = cell(x);
+            int cellZ = cell(z);
+            for (int dx = -1; dx <= 1; ++dx) {
+                for (int dz = -1; dz <= 1; ++dz) {
+                    int slot = find(cellKey(cellX + dx, cellZ + dz));
+                    for (int i = _heads[slot]; i != 0; i = _next[i - 1]) {
+                        double ddx = _x[i - 1] - x;
+                        double ddz = _z[i - 1] - z;
+                        if (ddx * ddx + ddz * ddz <= radiusSquared) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Return the slot containing the specified cell key, or the empty
+         * slot where it would be inserted.
+         *
+         * @param key the cell key.
+         * @return the slot.
+         */
+        int find(long key) {
+            int slot = VehicleStateTable.hash(key, 0) & _mask;
+            while (_heads[slot] != 0 && _keys[slot] != key) {
+                slot = (slot + 1) & _mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Return the cell coordinate containing a block coordinate.
+         *
+         * @param coord the X or Z coordinate.
+         * @return the cell coordinate.
+         */
+        int cell(double coord) {
+            return (int) Math.floor(coord / _cellSize);
+        }
+
+        /**
+         * Return the key of a cell.
+         *
+         * @param cellX the cell X coordinate.
+         * @param cellZ the cell Z coordinate.
+         * @return the key.
+         */
+        static long cellKey(int cellX, int cellZ) {
+            return VehicleIndex.chunkKey(cellX, cellZ);
+        }
+
+        private final int _mask;
+        private final double _cellSize;
+        private final long[] _keys;
+        private final int[] _heads;
+        private final int[] _next;
+        private final double[] _x;
+        private final double[] _z;
+    } // class WorldGrid
+
+    // ------------------------------------------------------------------------
+    /**
+     * The proximity radius in blocks.
+     */
+    private final double _radius;
+
+    /**
+     * Map from world UUID to that world's players.
+     */
+    private final HashMap<UUID, WorldGrid> _worlds = new HashMap<>();
+} // class PlayerGrid
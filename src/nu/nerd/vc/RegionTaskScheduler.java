@@ -0,0 +1,120 @@
+package nu.nerd.vc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * {@link TaskScheduler} implementation for region threaded servers (Folia).
+ *
+ * Repeating tasks run on the global region thread. Tasks affecting an entity
+ * are dispatched through the entity's own scheduler, so that they run on the
+ * thread of whichever region owns the entity at the time, and follow the
+ * entity if it moves between regions.
+ */
+public class RegionTaskScheduler implements TaskScheduler {
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#isRegionThreaded()
+     */
+    @Override
+    public boolean isRegionThreaded() {
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#isOwnedByCurrentThread(org.bukkit.World,
+     *      int, int)
+     */
+    @Override
+    public boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ) {
+        return Bukkit.isOwnedByCurrentRegion(world, chunkX, chunkZ);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runTimer(java.lang.Runnable, long, long)
+     */
+    @Override
+    public void runTimer(Runnable task, long delay, long period) {
+        Bukkit.getGlobalRegionScheduler().runAtFixedRate(VehicleControl.PLUGIN, t -> task.run(), delay, period);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runGlobal(java.lang.Runnable)
+     */
+    @Override
+    public void runGlobal(Runnable task) {
+        Bukkit.getGlobalRegionScheduler().execute(VehicleControl.PLUGIN, task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runAsync(java.lang.Runnable)
+     */
+    @Override
+    public void runAsync(Runnable task) {
+        Bukkit.getAsyncScheduler().runNow(VehicleControl.PLUGIN, t -> task.run());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runAsyncTimer(java.lang.Runnable, long,
+     *      long)
+     */
+    @Override
+    public void runAsyncTimer(Runnable task, long delay, long period) {
+        Bukkit.getAsyncScheduler().runAtFixedRate(VehicleControl.PLUGIN, t -> task.run(),
+                                                  delay * MILLIS_PER_TICK, period * MILLIS_PER_TICK,
+                                                  TimeUnit.MILLISECONDS);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runForEntity(org.bukkit.entity.Entity,
+     *      java.lang.Runnable)
+     */
+    @Override
+    public void runForEntity(Entity entity, Runnable task) {
+        entity.getScheduler().run(VehicleControl.PLUGIN, t -> {
+            if (VehicleControl.PLUGIN.isEnabled()) {
+                task.run();
+            }
+        }, null);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#runForRegion(org.bukkit.World, int, int,
+     *      java.lang.Runnable)
+     */
+    @Override
+    public void runForRegion(World world, int chunkX, int chunkZ, Runnable task) {
+        Bukkit.getRegionScheduler().execute(VehicleControl.PLUGIN, world, chunkX, chunkZ, task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.vc.TaskScheduler#cancelTasks()
+     *
+     *      Entity tasks are not cancelled explicitly. They are retired with
+     *      their entities, and do nothing if they run after the plugin is
+     *      disabled.
+     */
+    @Override
+    public void cancelTasks() {
+        Bukkit.getGlobalRegionScheduler().cancelTasks(VehicleControl.PLUGIN);
+        Bukkit.getAsyncScheduler().cancelTasks(VehicleControl.PLUGIN);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Nominal duration of a tick in milliseconds.
+     */
+    private static final long MILLIS_PER_TICK = 50;
+} // class RegionTaskScheduler
@@ -0,0 +1,177 @@
+package nu.nerd.vc;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.bukkit.entity.Vehicle;
+
+// ----------------------------------------------------------------------------
+/**
+ * A queue of vehicles that are due to break, drained at a limited rate.
+ *
+ * Breaking a vehicle (dropping its item and contents and removing the entity)
+ * is deferred to this queue, so that when many timeouts expire together, e.g.
+ * after a restart or when a large farm's vehicles were all tagged at once,
+ * the removals are spread over as many ticks as necessary. Each tick, at most
+ * removal.max-per-tick vehicles are removed and no more than
+ * removal.tick-budget-micros is spent doing so.
+ *
+ * Because a vehicle may wait in the queue for several ticks, it is
+ * re-validated when drained: a vehicle that has been boarded by a player, or
+ * that no longer meets the condition that made it due, is not broken.
+ *
+ * Vehicles can be queued from any region thread; each vehicle is queued at
+ * most once.
+ */
+public class RemovalQueue {
+    // ------------------------------------------------------------------------
+    /**
+     * The reason a vehicle is due to break, which determines how it is
+     * re-validated.
+     */
+    public enum Reason {
+        /**
+         * The vehicle's timeout expired.
+         */
+        EXPIRED,
+
+        /**
+         * The vehicle was empty, or carried only breakable passengers, for
+         * longer than its timeout, measured in ticks by the TICKS_LIVED
+         * timing.
+         */
+        IDLE,
+
+        /**
+         * The vehicle stayed in one block for too long.
+         */
+        STATIONARY,
+
+        /**
+         * The vehicle exceeded a density limit.
+         */
+        DENSITY,
+
+        /**
+         * The vehicle's owner exceeded the per-player quota.
+         */
+        QUOTA
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue a vehicle to break.
+     *
+     * @param vehicle the vehicle.
+     * @param reason  the reason the vehicle is due to break.
+     * @return true if the vehicle was queued; false if it was already queued.
+     */
+    public boolean add(Vehicle vehicle, Reason reason) {
+        UUID uuid = vehicle.getUniqueId();
+        if (!_queued.add(uuid)) {
+            return false;
+        }
+        _queue.add(new Entry(uuid, reason));
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a vehicle is waiting in the queue.
+     *
+     * @param uuid the vehicle's UUID.
+     * @return true if the vehicle is queued.
+     */
+    public boolean isQueued(UUID uuid) {
+        return _queued.contains(uuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of vehicles waiting in the queue.
+     *
+     * @return the queue depth.
+     */
+    public int size() {
+        return _queued.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Break queued vehicles, within the configured limits.
+     *
+     * Called once per tick by the scan task. Vehicles that are no longer
+     * loaded are discarded without counting towards the limits. Each vehicle
+     * is re-validated and broken on the thread that owns it.
+     *
+     * @param now the current system time.
+     */
+    public void drain(long now) {
+        int maxRemovals = VehicleControl.CONFIG.REMOVAL_MAX_PER_TICK;
+        int budgetMicros = VehicleControl.CONFIG.REMOVAL_TICK_BUDGET_MICROS;
+        long budgetNanos = (budgetMicros > 0) ? 1000L * budgetMicros : Long.MAX_VALUE;
+        long startNanos = System.nanoTime();
+        int removals = 0;
+
+        Entry entry;
+        while ((maxRemovals <= 0 || removals < maxRemovals) && (entry = _queue.poll()) != null) {
+            _queued.remove(entry.uuid);
+            Vehicle vehicle = VehicleControl.INDEX.getVehicle(entry.uuid);
+            if (vehicle == null) {
+                continue;
+            }
+
+            Reason reason = entry.reason;
+            VehicleControl.SCHEDULER.runForEntity(vehicle, () -> {
+                if (vehicle.isValid()) {
+                    VehicleControl.SCAN_TASK.removeVehicle(vehicle, reason, now);
+                }
+            });
+            ++removals;
+            if (System.nanoTime() - startNanos >= budgetNanos) {
+                break;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A queued vehicle.
+     */
+    static final class Entry {
+        /**
+         * Constructor.
+         *
+         * @param uuid   the UUID of the vehicle.
+         * @param reason the reason the vehicle is due to break.
+         */
+        Entry(UUID uuid, Reason reason) {
+            this.uuid = uuid;
+            this.reason = reason;
+        }
+
+        /**
+         * The UUID of the vehicle.
+         */
+        final UUID uuid;
+
+        /**
+         * The reason the vehicle is due to break.
+         */
+        final Reason reason;
+    } // class Entry
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queued vehicles, in the order they became due.
+     */
+    private final ConcurrentLinkedQueue<Entry> _queue = new ConcurrentLinkedQueue<Entry>();
+
+    /**
+     * UUIDs of the queued vehicles, used to queue each vehicle at most once
+     * and to report the queue depth in constant time.
+     */
+    private final Set<UUID> _queued = ConcurrentHashMap.newKeySet();
+} // class RemovalQueue
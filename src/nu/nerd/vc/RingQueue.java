@@ -0,0 +1,138 @@
+package nu.nerd.vc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// ----------------------------------------------------------------------------
+/**
+ * A bounded, lock-free, multi-producer multi-consumer FIFO queue.
+ *
+ * The queue is a ring of slots, each with a sequence number that tells
+ * producers and consumers whether the slot is ready to be written or read
+ * (after Dmitry Vyukov's bounded MPMC queue). Producers and consumers only
+ * contend on a compare-and-set of the tail or head position. When the queue
+ * is full, {@link #offer(Object)} fails immediately rather than blocking, so
+ * that producers on tick threads never wait for consumers.
+ *
+ * @param <E> the element type.
+ */
+public class RingQueue<E> {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the capacity, which is rounded up to a power of two.
+     */
+    public RingQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        _mask = size - 1;
+        _items = new AtomicReferenceArray<>(size);
+        _sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            _sequences.set(i, i);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add an element to the tail of the queue, if there is room.
+     *
+     * @param element the non-null element.
+     * @return true if added; false if the queue was full.
+     */
+    public boolean offer(E element) {
+        long pos = _tail.get();
+        for (;;) {
+            int slot = (int) (pos & _mask);
+            long diff = _sequences.get(slot) - pos;
+            if (diff == 0) {
+                if (_tail.compareAndSet(pos, pos + 1)) {
+                    _items.set(slot, element);
+                    _sequences.set(slot, pos + 1);
+                    return true;
+                }
+                pos = _tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = _tail.get();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove and return the element at the head of the queue.
+     *
+     * @return the element, or null if the queue is empty.
+     */
+    public E poll() {
+        long pos = _head.get();
+        for (;;) {
+            int slot = (int) (pos & _mask);
+            long diff = _sequences.get(slot) - (pos + 1);
+            if (diff == 0) {
+                if (_head.compareAndSet(pos, pos + 1)) {
+                    E element = _items.get(slot);
+                    _items.set(slot, null);
+                    _sequences.set(slot, pos + _mask + 1);
+                    return element;
+                }
+                pos = _head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = _head.get();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the approximate number of elements in the queue.
+     *
+     * @return the approximate number of elements in the queue.
+     */
+    public int size() {
+        long size = _tail.get() - _head.get();
+        return (int) Math.max(0, Math.min(size, _mask + 1));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the capacity of the queue.
+     *
+     * @return the capacity of the queue.
+     */
+    public int capacity() {
+        return _mask + 1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Capacity minus one; used to map positions to slots.
+     */
+    private final int _mask;
+
+    /**
+     * Elements in each slot.
+     */
+    private final AtomicReferenceArray<E> _items;
+
+    /**
+     * Sequence number of each slot. A slot can be written at position p when
+     * its sequence is p and read when its sequence is p + 1.
+     */
+    private final AtomicLongArray _sequences;
+
+    /**
+     * Position of the next element to be read.
+     */
+    private final AtomicLong _head = new AtomicLong();
+
+    /**
+     * Position of the next element to be written.
+     */
+    private final AtomicLong _tail = new AtomicLong();
+} // class RingQueue
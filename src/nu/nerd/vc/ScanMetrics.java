@@ -0,0 +1,288 @@
+package nu.nerd.vc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+// ----------------------------------------------------------------------------
+/**
+ * Metrics describing the cost and outcomes of vehicle scans.
+ *
+ * Counters are LongAdders so that they can be incremented cheaply from any
+ * region thread. Durations are recorded per world, once per scan cycle, as
+ * the total time spent processing that world's vehicles over all the ticks
+ * of the cycle.
+ */
+public class ScanMetrics {
+    /**
+     * Number of vehicles visited by scans.
+     */
+    public final LongAdder scanned = new LongAdder();
+
+    /**
+     * Number of times vehicles were tagged to break (including extensions).
+     */
+    public final LongAdder tagged = new LongAdder();
+
+    /**
+     * Number of times vehicles were found to be exempt from breaking.
+     */
+    public final LongAdder exempted = new LongAdder();
+
+    /**
+     * Number of vehicles broken.
+     */
+    public final LongAdder broken = new LongAdder();
+
+    /**
+     * Number of vehicles that were due to break but were skipped because of
+     * their contents or type.
+     */
+    public final LongAdder skipped = new LongAdder();
+
+    /**
+     * Number of queued removals that were cancelled because the vehicle was
+     * no longer due to break when the queue was drained.
+     */
+    public final LongAdder cancelled = new LongAdder();
+
+    /**
+     * Number of offloaded scan decisions that were discarded because the
+     * vehicle changed before the decision could be applied.
+     */
+    public final LongAdder stale = new LongAdder();
+
+    /**
+     * Number of vehicles left out of scan cycles because their chunks were
+     * not entity ticking.
+     */
+    public final LongAdder deferred = new LongAdder();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the time spent scanning a world during one scan cycle.
+     *
+     * @param worldName the name of the world.
+     * @param nanos     the total time in nanoseconds.
+     */
+    public void recordScan(String worldName, long nanos) {
+        DurationHistogram histogram;
+        synchronized (_durations) {
+            histogram = _durations.computeIfAbsent(worldName, k -> new DurationHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show the metrics to a command sender.
+     *
+     * @param sender the command sender.
+     */
+    public void showStats(CommandSender sender) {
+        sender.sendMessage(ChatColor.GOLD + "Tracked vehicles: " + ChatColor.YELLOW + VehicleControl.INDEX.size() +
+                           ChatColor.GOLD + ", tagged: " + ChatColor.YELLOW + VehicleControl.STATE.size() +
+                           ChatColor.GOLD + ", expiry queue: " + ChatColor.YELLOW +
+                           VehicleControl.SCAN_TASK.getExpiryQueueSize());
+        sender.sendMessage(ChatColor.GOLD + "Scanned: " + ChatColor.YELLOW + scanned.sum() +
+                           ChatColor.GOLD + ", tagged: " + ChatColor.YELLOW + tagged.sum() +
+                           ChatColor.GOLD + ", exempted: " + ChatColor.YELLOW + exempted.sum() +
+                           ChatColor.GOLD + ", broken: " + ChatColor.YELLOW + broken.sum() +
+                           ChatColor.GOLD + ", skipped: " + ChatColor.YELLOW + skipped.sum() +
+                           ChatColor.GOLD + ", cancelled: " + ChatColor.YELLOW + cancelled.sum() +
+                           ChatColor.GOLD + ", stale: " + ChatColor.YELLOW + stale.sum() +
+                           ChatColor.GOLD + ", deferred: " + ChatColor.YELLOW + deferred.sum());
+        sender.sendMessage(ChatColor.GOLD + "Removal queue: " + ChatColor.YELLOW + VehicleControl.REMOVALS.size());
+        AdaptiveSchedule schedule = VehicleControl.SCAN_TASK.getSchedule();
+        sender.sendMessage(ChatColor.GOLD + "MSPT: " + ChatColor.YELLOW + String.format("%.1f", schedule.getMspt()) +
+                           ChatColor.GOLD + ", budget factor: " + ChatColor.YELLOW +
+                           String.format("%.2f", schedule.getLoadFactor()));
+        long now = System.currentTimeMillis();
+        for (WorldScan scan : VehicleControl.SCAN_TASK.getWorldScans()) {
+            sender.sendMessage(ChatColor.GOLD + scan.getWorld().getName() + " period: " + ChatColor.YELLOW +
+                               String.format("%.1f s", scan.getPeriodSeconds()) +
+                               ChatColor.GOLD + ", vehicles: " + ChatColor.YELLOW + scan.getPopulation() +
+                               ChatColor.GOLD + ", growth: " + ChatColor.YELLOW +
+                               String.format("%.1f/min", scan.getGrowthPerMinute()) +
+                               ChatColor.GOLD + ", next scan: " + ChatColor.YELLOW +
+                               (scan.isActive() ? "in progress"
+                                                : String.format("%.1f s",
+                                                                Math.max(0, scan.getNextCycleMillis() - now) * 1e-3)));
+        }
+        for (Map.Entry<String, DurationHistogram> entry : getDurations().entrySet()) {
+            DurationHistogram histogram = entry.getValue();
+            sender.sendMessage(ChatColor.GOLD + entry.getKey() + ": " +
+                               ChatColor.YELLOW + histogram.getCount() + ChatColor.GOLD + " scans, p50 " +
+                               ChatColor.YELLOW + formatMillis(histogram.getQuantileSeconds(0.5)) +
+                               ChatColor.GOLD + ", p99 " +
+                               ChatColor.YELLOW + formatMillis(histogram.getQuantileSeconds(0.99)) +
+                               ChatColor.GOLD + ", max " +
+                               ChatColor.YELLOW + formatMillis(histogram.getMaxSeconds()));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the metrics to the configured file in Prometheus text exposition
+     * format, if it is time to do so.
+     *
+     * The file is written to a temporary file and then renamed, so that
+     * readers never see a partially written file. This method is called
+     * periodically on an asynchronous thread.
+     */
+    public void writePrometheusIfDue() {
+        String fileName = VehicleControl.CONFIG.METRICS_PROMETHEUS_FILE;
+        if (fileName == null || fileName.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - _lastWriteMillis < 1000L * VehicleControl.CONFIG.METRICS_WRITE_PERIOD_SECONDS) {
+            return;
+        }
+        _lastWriteMillis = now;
+
+        File file = new File(fileName);
+        if (!file.isAbsolute()) {
+            file = new File(VehicleControl.PLUGIN.getDataFolder(), fileName);
+        }
+        Path path = file.toPath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.writeString(temp, formatPrometheus(), StandardCharsets.UTF_8);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            VehicleControl.PLUGIN.getLogger().warning("Unable to write metrics to " + path + ": " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the metrics in Prometheus text exposition format.
+     *
+     * @return the metrics in Prometheus text exposition format.
+     */
+    public String formatPrometheus() {
+        StringBuilder out = new StringBuilder();
+        appendGauge(out, "vehiclecontrol_tracked_vehicles", "Loaded vehicles tracked by the index.",
+                    VehicleControl.INDEX.size());
+        appendGauge(out, "vehiclecontrol_tagged_vehicles", "Loaded vehicles tagged to break.",
+                    VehicleControl.STATE.size());
+        appendGauge(out, "vehiclecontrol_expiry_queue_entries", "Entries in the expiry queue, including stale entries.",
+                    VehicleControl.SCAN_TASK.getExpiryQueueSize());
+        appendGauge(out, "vehiclecontrol_removal_queue_depth", "Vehicles waiting in the removal queue.",
+                    VehicleControl.REMOVALS.size());
+        appendCounter(out, "vehiclecontrol_vehicles_scanned_total", "Vehicles visited by scans.", scanned.sum());
+        appendCounter(out, "vehiclecontrol_vehicles_tagged_total", "Vehicles tagged to break.", tagged.sum());
+        appendCounter(out, "vehiclecontrol_vehicles_exempted_total", "Vehicles exempted from breaking.",
+                      exempted.sum());
+        appendCounter(out, "vehiclecontrol_vehicles_broken_total", "Vehicles broken.", broken.sum());
+        appendCounter(out, "vehiclecontrol_vehicles_skipped_total",
+                      "Vehicles due to break that were skipped because of their contents or type.", skipped.sum());
+        appendCounter(out, "vehiclecontrol_removals_cancelled_total",
+                      "Queued removals cancelled because the vehicle was no longer due to break.", cancelled.sum());
+        appendCounter(out, "vehiclecontrol_decisions_stale_total",
+                      "Offloaded scan decisions discarded because the vehicle changed.", stale.sum());
+        appendCounter(out, "vehiclecontrol_vehicles_deferred_total",
+                      "Vehicles left out of scan cycles because their chunks were not entity ticking.",
+                      deferred.sum());
+
+        Map<String, DurationHistogram> durations = getDurations();
+        out.append("# HELP vehiclecontrol_scan_duration_seconds Time spent scanning each world per scan cycle.\n");
+        out.append("# TYPE vehiclecontrol_scan_duration_seconds histogram\n");
+        for (Map.Entry<String, DurationHistogram> entry : durations.entrySet()) {
+            entry.getValue().appendPrometheus(out, "vehiclecontrol_scan_duration_seconds", worldLabel(entry.getKey()));
+        }
+        out.append("# HELP vehiclecontrol_scan_duration_max_seconds Longest time spent scanning each world.\n");
+        out.append("# TYPE vehiclecontrol_scan_duration_max_seconds gauge\n");
+        for (Map.Entry<String, DurationHistogram> entry : durations.entrySet()) {
+            out.append("vehiclecontrol_scan_duration_max_seconds{").append(worldLabel(entry.getKey())).append("} ")
+                .append(entry.getValue().getMaxSeconds()).append('\n');
+        }
+        return out.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a sorted copy of the map from world name to scan duration
+     * histogram.
+     *
+     * @return a sorted copy of the map.
+     */
+    protected Map<String, DurationHistogram> getDurations() {
+        synchronized (_durations) {
+            return new TreeMap<>(_durations);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a gauge in Prometheus text exposition format.
+     *
+     * @param out   the output.
+     * @param name  the metric name.
+     * @param help  the help text.
+     * @param value the value.
+     */
+    protected static void appendGauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a counter in Prometheus text exposition format.
+     *
+     * @param out   the output.
+     * @param name  the metric name.
+     * @param help  the help text.
+     * @param value the value.
+     */
+    protected static void appendCounter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a Prometheus world label, with the world name escaped.
+     *
+     * @param worldName the world name.
+     * @return the label.
+     */
+    protected static String worldLabel(String worldName) {
+        return "world=\"" + worldName.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a duration in seconds as milliseconds.
+     *
+     * @param seconds the duration in seconds.
+     * @return the formatted duration.
+     */
+    protected static String formatMillis(double seconds) {
+        return String.format("%.3f ms", seconds * 1000);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from world name to histogram of scan durations in that world.
+     */
+    private final TreeMap<String, DurationHistogram> _durations = new TreeMap<>();
+
+    /**
+     * System time when the metrics file was last written.
+     */
+    private volatile long _lastWriteMillis;
+} // class ScanMetrics
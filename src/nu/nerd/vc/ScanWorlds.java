@@ -0,0 +1,105 @@
+package nu.nerd.vc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * An immutable list of the loaded worlds that are scanned for vehicles.
+ *
+ * The worlds named in scan.worlds are scanned while they are loaded, so the
+ * list changes as worlds load and unload, independently of the rest of the
+ * configuration. It is therefore published through its own volatile
+ * reference, VehicleControl.SCAN_WORLDS, and each change replaces the whole
+ * instance, leaving the Configuration snapshot untouched.
+ */
+public class ScanWorlds {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the loaded worlds among those configured to be scanned.
+     *
+     * @param names the names of the worlds in scan.worlds.
+     * @return the scanned worlds.
+     */
+    public static ScanWorlds resolve(List<String> names) {
+        ArrayList<World> worlds = new ArrayList<World>();
+        for (String worldName : names) {
+            World world = Bukkit.getWorld(worldName);
+            if (world == null) {
+                Configuration.getLogger().warning("There is no world named \"" + worldName + "\" to scan; " +
+                                                  "it will be scanned if it loads.");
+            } else {
+                worlds.add(world);
+            }
+        }
+        return new ScanWorlds(worlds);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param worlds the scanned worlds; copied.
+     */
+    public ScanWorlds(List<World> worlds) {
+        _worlds = Collections.unmodifiableList(new ArrayList<World>(worlds));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a list with a world added or removed.
+     *
+     * A world is only added if it is named in scan.worlds.
+     *
+     * @param config  the configuration.
+     * @param world   the world.
+     * @param scanned true to add the world; false to remove it.
+     * @return the new list, or this instance if the list would not change.
+     */
+    public ScanWorlds with(Configuration config, World world, boolean scanned) {
+        if (scanned == _worlds.contains(world) ||
+            (scanned && !config.SCAN_WORLD_NAMES.contains(world.getName()))) {
+            return this;
+        }
+
+        ArrayList<World> worlds = new ArrayList<World>(_worlds);
+        if (scanned) {
+            worlds.add(world);
+        } else {
+            worlds.remove(world);
+        }
+        return new ScanWorlds(worlds);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a world is scanned.
+     *
+     * @param world the world.
+     * @return true if the world is scanned.
+     */
+    public boolean contains(World world) {
+        return _worlds.contains(world);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the scanned worlds.
+     *
+     * @return an unmodifiable list of the worlds, in scan.worlds order for
+     *         those loaded at the last reload.
+     */
+    public List<World> getWorlds() {
+        return _worlds;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The scanned worlds.
+     */
+    private final List<World> _worlds;
+} // class ScanWorlds
@@ -0,0 +1,121 @@
+package nu.nerd.vc;
+
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * Abstraction of the server's task scheduling facilities.
+ *
+ * On Paper, all entities are owned by the main thread, whereas on Folia each
+ * entity is owned by the thread of the region that contains it, and tasks
+ * affecting an entity must be run on that thread.
+ */
+public interface TaskScheduler {
+    // ------------------------------------------------------------------------
+    /**
+     * Return a scheduler suited to the server the plugin is running on.
+     *
+     * @return a {@link RegionTaskScheduler} if the server uses region
+     *         threading, or a {@link BukkitTaskScheduler} otherwise.
+     */
+    public static TaskScheduler create() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return new RegionTaskScheduler();
+        } catch (ClassNotFoundException ex) {
+            return new BukkitTaskScheduler();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if entities are owned by multiple region threads.
+     *
+     * @return true if entities are owned by multiple region threads.
+     */
+    public boolean isRegionThreaded();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the current thread owns the region containing a chunk,
+     * so that the chunk's blocks and entities can be modified immediately.
+     *
+     * @param world  the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the current thread owns the chunk.
+     */
+    public boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task repeatedly on the thread responsible for global (not region
+     * specific) state.
+     *
+     * @param task   the task.
+     * @param delay  the delay in ticks before the first run; at least 1.
+     * @param period the period in ticks between runs; at least 1.
+     */
+    public void runTimer(Runnable task, long delay, long period);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task once, on the next tick, on the thread responsible for global
+     * (not region specific) state.
+     *
+     * This method can be called from any thread.
+     *
+     * @param task the task.
+     */
+    public void runGlobal(Runnable task);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task once, as soon as possible, on an asynchronous thread.
+     *
+     * @param task the task.
+     */
+    public void runAsync(Runnable task);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task repeatedly on an asynchronous thread.
+     *
+     * @param task   the task.
+     * @param delay  the delay in ticks before the first run; at least 1.
+     * @param period the period in ticks between runs; at least 1.
+     */
+    public void runAsyncTimer(Runnable task, long delay, long period);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task on the thread that owns the specified entity.
+     *
+     * If the caller is already on that thread, the task may run immediately.
+     * If the entity is removed before the task can run, the task is not run.
+     *
+     * @param entity the entity.
+     * @param task   the task.
+     */
+    public void runForEntity(Entity entity, Runnable task);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task on the thread that owns the specified chunk.
+     *
+     * If the caller is already on that thread, the task may run immediately.
+     *
+     * @param world  the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param task   the task.
+     */
+    public void runForRegion(World world, int chunkX, int chunkZ, Runnable task);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel all tasks scheduled by this plugin.
+     */
+    public void cancelTasks();
+} // class TaskScheduler
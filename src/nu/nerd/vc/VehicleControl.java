@@ -1,15 +1,26 @@
 package nu.nerd.vc;
 
+import java.util.Collections;
+
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Boat;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
 import org.bukkit.entity.Vehicle;
 import org.bukkit.entity.minecart.RideableMinecart;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDismountEvent;
+import org.bukkit.event.entity.EntityMountEvent;
+import org.bukkit.event.player.PlayerInteractEntityEvent;
 import org.bukkit.event.vehicle.VehicleExitEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
 // ----------------------------------------------------------------------------
@@ -23,9 +34,91 @@ public class VehicleControl extends JavaPlugin implements Listener {
     public static VehicleControl PLUGIN;
 
     /**
-     * Configuration singleton.
+     * The current configuration snapshot, replaced as a whole when the
+     * configuration is reloaded.
+     */
+    public static volatile Configuration CONFIG = new Configuration();
+
+    /**
+     * The loaded worlds that are scanned, replaced as a whole when the
+     * configuration is reloaded or a scanned world loads or unloads.
+     */
+    public static volatile ScanWorlds SCAN_WORLDS = new ScanWorlds(Collections.emptyList());
+
+    /**
+     * Reports the chunks with the most vehicles.
+     */
+    public static HotspotReport HOTSPOTS = new HotspotReport();
+
+    /**
+     * Handles the zone subcommands.
      */
-    public static Configuration CONFIG = new Configuration();
+    public static ZoneCommand ZONE_COMMAND = new ZoneCommand();
+
+    /**
+     * Reloads the configuration when config.yml changes.
+     */
+    public static ConfigWatcher CONFIG_WATCHER = new ConfigWatcher();
+
+    /**
+     * Index of loaded vehicles in all worlds.
+     */
+    public static VehicleIndex INDEX = new VehicleIndex();
+
+    /**
+     * State of vehicles that are due to break.
+     */
+    public static VehicleStateTable STATE = new VehicleStateTable();
+
+    /**
+     * Last block position of each vehicle and when it moved there.
+     */
+    public static MovementTable MOVEMENT = new MovementTable();
+
+    /**
+     * Summaries of the passengers of occupied vehicles.
+     */
+    public static PassengerCache PASSENGERS = new PassengerCache();
+
+    /**
+     * Enforces limits on the number of vehicles per chunk and block.
+     */
+    public static DensityControl DENSITY = new DensityControl();
+
+    /**
+     * Owners of vehicles and per-player quotas.
+     */
+    public static OwnerQuota OWNERS = new OwnerQuota();
+
+    /**
+     * Vehicles due to break, removed at a limited rate.
+     */
+    public static RemovalQueue REMOVALS = new RemovalQueue();
+
+    /**
+     * Collects the items dropped by broken vehicles.
+     */
+    public static DropCoalescer DROPS = new DropCoalescer();
+
+    /**
+     * Scan metrics.
+     */
+    public static ScanMetrics METRICS = new ScanMetrics();
+
+    /**
+     * Audit log of vehicle breaks and exemptions.
+     */
+    public static AuditLog AUDIT = new AuditLog();
+
+    /**
+     * The task that scans for vehicles and breaks them.
+     */
+    public static VehicleScanTask SCAN_TASK = new VehicleScanTask();
+
+    /**
+     * Scheduler suited to the threading model of the server.
+     */
+    public static TaskScheduler SCHEDULER = TaskScheduler.create();
 
     // ------------------------------------------------------------------------
     /**
@@ -36,10 +129,17 @@ public class VehicleControl extends JavaPlugin implements Listener {
         PLUGIN = this;
 
         saveDefaultConfig();
-        CONFIG.reload();
+        CONFIG = Configuration.load(null);
+        SCAN_WORLDS = ScanWorlds.resolve(CONFIG.SCAN_WORLD_NAMES);
 
         getServer().getPluginManager().registerEvents(this, this);
-        new VehicleScanTask().scheduleNextRun();
+        getServer().getPluginManager().registerEvents(INDEX, this);
+        getServer().getPluginManager().registerEvents(OWNERS, this);
+        INDEX.rebuild();
+        SCAN_TASK.start();
+        SCHEDULER.runAsyncTimer(METRICS::writePrometheusIfDue, 20, 20);
+        AUDIT.start();
+        CONFIG_WATCHER.start();
     }
 
     // ------------------------------------------------------------------------
@@ -48,7 +148,15 @@ public class VehicleControl extends JavaPlugin implements Listener {
      */
     @Override
     public void onDisable() {
-        Bukkit.getScheduler().cancelTasks(this);
+        CONFIG_WATCHER.stop();
+        try {
+            DROPS.flush();
+        } catch (RuntimeException ex) {
+            getLogger().warning("Unable to deliver vehicle drops on shutdown: " + ex);
+        }
+        SCHEDULER.cancelTasks();
+        SCAN_TASK.shutdown();
+        AUDIT.shutdown();
     }
 
     // ------------------------------------------------------------------------
@@ -60,16 +168,153 @@ public class VehicleControl extends JavaPlugin implements Listener {
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (command.getName().equalsIgnoreCase(getName())) {
             if (args.length == 1 && args[0].equalsIgnoreCase("reload")) {
-                CONFIG.reload();
-                sender.sendMessage(ChatColor.GOLD + getName() + " configuration reloaded.");
+                if (reloadConfiguration()) {
+                    sender.sendMessage(ChatColor.GOLD + getName() + " configuration reloaded.");
+                } else {
+                    sender.sendMessage(ChatColor.RED + "config.yml is invalid; the configuration was not reloaded.");
+                }
+                return true;
+            } else if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+                METRICS.showStats(sender);
                 return true;
+            } else if ((args.length == 1 || args.length == 2) && args[0].equalsIgnoreCase("owners")) {
+                try {
+                    int limit = (args.length == 2) ? Integer.parseInt(args[1]) : 10;
+                    OWNERS.showOwners(sender, limit);
+                    return true;
+                } catch (NumberFormatException ex) {
+                    sender.sendMessage(ChatColor.RED + "The number of owners must be an integer.");
+                }
+            } else if (args.length == 2 && args[0].equalsIgnoreCase("hotspots") && args[1].equalsIgnoreCase("dump")) {
+                HOTSPOTS.dump(sender, Bukkit.getWorlds());
+                return true;
+            } else if (args.length >= 1 && args.length <= 3 && args[0].equalsIgnoreCase("hotspots")) {
+                World world = (args.length >= 2) ? Bukkit.getWorld(args[1])
+                                                 : (sender instanceof Player) ? ((Player) sender).getWorld() : null;
+                try {
+                    int limit = (args.length == 3) ? Integer.parseInt(args[2]) : 10;
+                    if (world != null) {
+                        HOTSPOTS.showHotspots(sender, world, limit);
+                        return true;
+                    }
+                    sender.sendMessage(ChatColor.RED + ((args.length >= 2) ? "There is no world named " + args[1] + "."
+                                                                           : "You must specify a world."));
+                } catch (NumberFormatException ex) {
+                    sender.sendMessage(ChatColor.RED + "The number of chunks must be an integer.");
+                }
+            } else if (args.length >= 2 && args[0].equalsIgnoreCase("zone")) {
+                if (ZONE_COMMAND.onCommand(sender, args)) {
+                    return true;
+                }
             }
         }
 
-        sender.sendMessage(ChatColor.RED + "Usage: /" + command.getName() + "reload - Reload the configuration.");
+        sender.sendMessage(ChatColor.RED + "Usage:");
+        sender.sendMessage(ChatColor.RED + "/" + command.getName() + " reload - Reload the configuration.");
+        sender.sendMessage(ChatColor.RED + "/" + command.getName() + " stats - Show scan statistics.");
+        sender.sendMessage(ChatColor.RED + "/" + command.getName() +
+                           " owners [<count>] - List the players who own the most loaded vehicles.");
+        sender.sendMessage(ChatColor.RED + "/" + command.getName() +
+                           " hotspots [<world>] [<count>] - List the chunks with the most vehicles.");
+        sender.sendMessage(ChatColor.RED + "/" + command.getName() +
+                           " hotspots dump - Write the vehicle count of every chunk to a CSV file.");
+        sender.sendMessage(ChatColor.RED + "/" + command.getName() + " zone list - List the zones.");
+        sender.sendMessage(ChatColor.RED + "/" + command.getName() +
+                           " zone add <name> <x1> <y1> <z1> <x2> <y2> <z2> [<world>] - Add an exempt zone.");
+        sender.sendMessage(ChatColor.RED + "/" + command.getName() +
+                           " zone set <name> <setting> <value> - Set exempt, break-empty-seconds or " +
+                           "break-with-passenger-seconds; use default to clear a timeout.");
+        sender.sendMessage(ChatColor.RED + "/" + command.getName() + " zone remove <name> - Remove a zone.");
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reload the configuration, swap in the new snapshot and reconcile the
+     * scan schedules with it.
+     *
+     * This must be called on the thread responsible for global state.
+     *
+     * @return true if the configuration was reloaded; false if config.yml is
+     *         invalid and the current configuration was kept.
+     */
+    public static boolean reloadConfiguration() {
+        Configuration config = Configuration.load(CONFIG);
+        CONFIG_WATCHER.onReload();
+        if (config == CONFIG) {
+            return false;
+        }
+        CONFIG = config;
+        SCAN_WORLDS = ScanWorlds.resolve(config.SCAN_WORLD_NAMES);
+        SCAN_TASK.requestReschedule();
         return true;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Start scanning a world that is configured to be scanned when it loads.
+     */
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event) {
+        ScanWorlds worlds = SCAN_WORLDS.with(CONFIG, event.getWorld(), true);
+        if (worlds != SCAN_WORLDS) {
+            SCAN_WORLDS = worlds;
+            SCAN_TASK.requestReschedule();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop scanning a world when it unloads.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        ScanWorlds worlds = SCAN_WORLDS.with(CONFIG, event.getWorld(), false);
+        if (worlds != SCAN_WORLDS) {
+            SCAN_WORLDS = worlds;
+            SCAN_TASK.requestReschedule();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record when a passenger gets into a vehicle, for the TICKS_LIVED timing,
+     * and discard the cached passengers of the vehicle.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityMount(EntityMountEvent event) {
+        if (VehicleIndex.isTracked(event.getMount())) {
+            SCAN_TASK.recordPassengerChange(event.getMount());
+            PASSENGERS.invalidate(event.getMount().getUniqueId());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record when a passenger gets out of a vehicle, for the TICKS_LIVED
+     * timing, and discard the cached passengers of the vehicle.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityDismount(EntityDismountEvent event) {
+        if (VehicleIndex.isTracked(event.getDismounted())) {
+            SCAN_TASK.recordPassengerChange(event.getDismounted());
+            PASSENGERS.invalidate(event.getDismounted().getUniqueId());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the cached passengers of a vehicle when one of its passengers
+     * is interacted with, since that is how passengers are named.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerInteractEntity(PlayerInteractEntityEvent event) {
+        Entity vehicle = event.getRightClicked().getVehicle();
+        if (vehicle != null && VehicleIndex.isTracked(vehicle)) {
+            PASSENGERS.invalidate(vehicle.getUniqueId());
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Remove boats and minecarts when the player exits them, if configured to
@@ -0,0 +1,652 @@
+package nu.nerd.vc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Boat;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Minecart;
+import org.bukkit.entity.Vehicle;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.vehicle.VehicleCreateEvent;
+import org.bukkit.event.vehicle.VehicleDestroyEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+
+// ----------------------------------------------------------------------------
+/**
+ * Per-world index of the loaded vehicles that the plugin manages.
+ *
+ * The index is kept current by entity and vehicle events, so that the scan
+ * task only visits vehicles, rather than every loaded entity in each world.
+ * The add and remove handlers are idempotent, since the same entity can be
+ * reported by more than one event (e.g. both VehicleCreateEvent and
+ * EntityAddToWorldEvent).
+ *
+ * The index also counts the vehicles in each chunk, in total and by
+ * {@link VehiclePolicy} category. Each vehicle's chunk is recorded when it is
+ * added, updated when it moves into another chunk, and reconciled when it is
+ * scanned (to account for teleports, which don't fire VehicleMoveEvent). The
+ * counts serve the density limits and the hotspot report, neither of which
+ * needs to traverse a world's entities.
+ *
+ * On region threaded servers, events are fired on multiple threads, so the
+ * index uses concurrent maps.
+ */
+public class VehicleIndex implements Listener {
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the entity is a type of vehicle that is tracked by the
+     * index.
+     *
+     * All boats and minecarts are tracked, whether or not their type is
+     * managed by a {@link VehiclePolicy}, so that the index remains complete
+     * when the configuration is reloaded. Vehicles of unmanaged types are
+     * ignored when scanned.
+     *
+     * @param entity the entity.
+     * @return true if the entity is a type of vehicle that is tracked by the
+     *         index.
+     */
+    public static boolean isTracked(Entity entity) {
+        return entity instanceof Boat || entity instanceof Minecart;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the chunk with the specified chunk coordinates.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the chunk key.
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return (chunkX & 0xFFFFFFFFL) | ((chunkZ & 0xFFFFFFFFL) << 32);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the chunk containing the specified location.
+     *
+     * @param loc the location.
+     * @return the chunk key.
+     */
+    public static long chunkKey(Location loc) {
+        return chunkKey(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk X coordinate encoded in a chunk key.
+     *
+     * @param chunkKey the chunk key.
+     * @return the chunk X coordinate.
+     */
+    public static int chunkX(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk Z coordinate encoded in a chunk key.
+     *
+     * @param chunkKey the chunk key.
+     * @return the chunk Z coordinate.
+     */
+    public static int chunkZ(long chunkKey) {
+        return (int) (chunkKey >>> 32);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the contents of the index and re-populate it from the entities
+     * currently loaded in all worlds.
+     *
+     * This is only necessary when the plugin is enabled, since thereafter the
+     * index is maintained by events. On region threaded servers, entities
+     * cannot be enumerated from the global thread, so the index is populated
+     * only by events as chunks load.
+     */
+    public void rebuild() {
+        _worlds.clear();
+        if (VehicleControl.SCHEDULER.isRegionThreaded()) {
+            return;
+        }
+
+        for (World world : Bukkit.getWorlds()) {
+            for (Vehicle vehicle : world.getEntitiesByClass(Vehicle.class)) {
+                add(vehicle);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a snapshot of the tracked vehicles in the specified world.
+     *
+     * A new, modifiable list is returned, which the caller owns, so that it
+     * can be modified while iterating without copying it again.
+     *
+     * @param world the world.
+     * @return a snapshot of the tracked vehicles in the world.
+     */
+    public ArrayList<Vehicle> getVehicles(World world) {
+        WorldIndex index = _worlds.get(world.getUID());
+        if (index == null) {
+            return new ArrayList<Vehicle>();
+        }
+
+        ArrayList<Vehicle> vehicles = new ArrayList<Vehicle>(index.vehicles.size());
+        for (Tracked tracked : index.vehicles.values()) {
+            vehicles.add(tracked.vehicle);
+        }
+        return vehicles;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Split the tracked vehicles in a world by the load level of the chunks
+     * they were last known to be in.
+     *
+     * The load level of each chunk is looked up once per call, however many
+     * vehicles it contains. This must be called on the thread that owns the
+     * world's chunks.
+     *
+     * @param world      the world.
+     * @param ticking    the list to add vehicles in entity ticking chunks to.
+     * @param nonTicking the list to add all other vehicles to.
+     */
+    public void getVehiclesByLoadLevel(World world, List<Vehicle> ticking, List<Vehicle> nonTicking) {
+        WorldIndex index = _worlds.get(world.getUID());
+        if (index == null) {
+            return;
+        }
+
+        HashMap<Long, Boolean> entityTicking = new HashMap<>();
+        for (Tracked tracked : index.vehicles.values()) {
+            long chunkKey;
+            synchronized (tracked) {
+                chunkKey = tracked.chunkKey;
+            }
+            Boolean isTicking = entityTicking.get(chunkKey);
+            if (isTicking == null) {
+                int chunkX = chunkX(chunkKey);
+                int chunkZ = chunkZ(chunkKey);
+                isTicking = world.isChunkLoaded(chunkX, chunkZ) &&
+                            world.getChunkAt(chunkX, chunkZ).getLoadLevel() == Chunk.LoadLevel.ENTITY_TICKING;
+                entityTicking.put(chunkKey, isTicking);
+            }
+            (isTicking ? ticking : nonTicking).add(tracked.vehicle);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the tracked vehicle with the specified UUID.
+     *
+     * @param uuid the vehicle's UUID.
+     * @return the vehicle, or null if not tracked.
+     */
+    public Vehicle getVehicle(UUID uuid) {
+        for (WorldIndex index : _worlds.values()) {
+            Tracked tracked = index.vehicles.get(uuid);
+            if (tracked != null) {
+                return tracked.vehicle;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of tracked vehicles in all worlds.
+     *
+     * @return the total number of tracked vehicles in all worlds.
+     */
+    public int size() {
+        int size = 0;
+        for (WorldIndex index : _worlds.values()) {
+            size += index.vehicles.size();
+        }
+        return size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of tracked vehicles in a chunk.
+     *
+     * @param world    the world.
+     * @param chunkKey the chunk key.
+     * @return the number of tracked vehicles in the chunk.
+     */
+    public int getChunkCount(World world, long chunkKey) {
+        WorldIndex index = _worlds.get(world.getUID());
+        if (index == null) {
+            return 0;
+        }
+        ChunkCount count = index.chunkCounts.get(chunkKey);
+        return (count != null) ? count.total : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunks of a world with the most tracked vehicles.
+     *
+     * This is a single pass over the world's chunk counts, keeping the largest
+     * in a heap of at most limit entries; no entities are visited.
+     *
+     * @param world the world.
+     * @param limit the maximum number of chunks to return.
+     * @return copies of the counts of up to limit chunks, in descending order
+     *         of total count.
+     */
+    public List<ChunkCount> getHotspots(World world, int limit) {
+        WorldIndex index = _worlds.get(world.getUID());
+        if (index == null || limit <= 0) {
+            return Collections.<ChunkCount>emptyList();
+        }
+
+        PriorityQueue<ChunkCount> top = new PriorityQueue<>(limit + 1, (a, b) -> Integer.compare(a.total, b.total));
+        for (ChunkCount count : index.chunkCounts.values()) {
+            int total = count.total;
+            if (top.size() < limit || total > top.peek().total) {
+                top.add(count.copy());
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+        }
+
+        ArrayList<ChunkCount> hotspots = new ArrayList<>(top);
+        hotspots.sort((a, b) -> Integer.compare(b.total, a.total));
+        return hotspots;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the counts of every chunk in a world that has tracked vehicles.
+     *
+     * @param world the world.
+     * @return copies of the chunk counts, in no particular order.
+     */
+    public List<ChunkCount> getChunkCounts(World world) {
+        WorldIndex index = _worlds.get(world.getUID());
+        if (index == null) {
+            return Collections.<ChunkCount>emptyList();
+        }
+
+        ArrayList<ChunkCount> counts = new ArrayList<>(index.chunkCounts.size());
+        for (ChunkCount count : index.chunkCounts.values()) {
+            counts.add(count.copy());
+        }
+        return counts;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the recorded chunk of a vehicle from its current location.
+     *
+     * @param vehicle the vehicle.
+     */
+    public void updateChunk(Vehicle vehicle) {
+        World world = vehicle.getWorld();
+        WorldIndex index = _worlds.get(world.getUID());
+        if (index != null) {
+            Tracked tracked = index.vehicles.get(vehicle.getUniqueId());
+            if (tracked != null) {
+                move(world, index, tracked, chunkKey(vehicle.getLocation(SCRATCH_LOCATION.get())));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add an entity to the index if it is a tracked vehicle.
+     *
+     * If the vehicle was tagged before it was last unloaded, its tag is
+     * restored from its persistent data.
+     *
+     * @param entity the entity.
+     */
+    protected void add(Entity entity) {
+        if (isTracked(entity)) {
+            Vehicle vehicle = (Vehicle) entity;
+            World world = entity.getWorld();
+            WorldIndex index = _worlds.computeIfAbsent(world.getUID(), k -> new WorldIndex());
+            Tracked tracked = new Tracked(vehicle, chunkKey(entity.getLocation()),
+                                          VehiclePolicy.getCategoryIndex(entity.getType()));
+            if (index.vehicles.putIfAbsent(entity.getUniqueId(), tracked) == null) {
+                increment(world, index, tracked.chunkKey, tracked.category);
+            }
+            VehicleControl.SCAN_TASK.restoreTag(vehicle);
+            VehicleControl.OWNERS.onAdd(vehicle);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove an entity from the index if it is a tracked vehicle.
+     *
+     * The vehicle's entries in the {@link VehicleStateTable} and
+     * {@link MovementTable} are also removed, so that those tables only hold
+     * loaded vehicles, and it is no longer counted by {@link OwnerQuota}.
+     *
+     * @param entity the entity.
+     */
+    protected void remove(Entity entity) {
+        if (isTracked(entity)) {
+            VehicleControl.STATE.remove(entity.getUniqueId());
+            VehicleControl.MOVEMENT.remove(entity.getUniqueId());
+            VehicleControl.PASSENGERS.invalidate(entity.getUniqueId());
+            VehicleControl.OWNERS.onRemove(entity.getUniqueId());
+            WorldIndex index = _worlds.get(entity.getWorld().getUID());
+            if (index != null) {
+                Tracked tracked = index.vehicles.remove(entity.getUniqueId());
+                if (tracked != null) {
+                    decrement(index, tracked.chunkKey, tracked.category);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move a tracked vehicle to a new chunk, updating the chunk counts.
+     *
+     * @param world       the world.
+     * @param index       the index of the world.
+     * @param tracked     the tracked vehicle.
+     * @param newChunkKey the key of the chunk that the vehicle is now in.
+     */
+    protected void move(World world, WorldIndex index, Tracked tracked, long newChunkKey) {
+        long oldChunkKey;
+        synchronized (tracked) {
+            oldChunkKey = tracked.chunkKey;
+            if (oldChunkKey == newChunkKey) {
+                return;
+            }
+            tracked.chunkKey = newChunkKey;
+        }
+        decrement(index, oldChunkKey, tracked.category);
+        increment(world, index, newChunkKey, tracked.category);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Increment the count of vehicles in a chunk, and report the chunk to
+     * {@link DensityControl} in case it is now overloaded.
+     *
+     * @param world    the world.
+     * @param index    the index of the world.
+     * @param chunkKey the chunk key.
+     * @param category the index of the vehicle's category, or -1 if none.
+     */
+    protected void increment(World world, WorldIndex index, long chunkKey, int category) {
+        ChunkCount count = index.chunkCounts.compute(chunkKey, (k, c) -> {
+            if (c == null) {
+                c = new ChunkCount(k);
+            }
+            c.add(category, 1);
+            return c;
+        });
+        VehicleControl.DENSITY.onChunkCount(world, chunkKey, count.total);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decrement the count of vehicles in a chunk, removing the chunk's entry
+     * when the count reaches zero.
+     *
+     * @param index    the index of the world.
+     * @param chunkKey the chunk key.
+     * @param category the index of the vehicle's category, or -1 if none.
+     */
+    protected void decrement(WorldIndex index, long chunkKey, int category) {
+        index.chunkCounts.computeIfPresent(chunkKey, (k, c) -> {
+            c.add(category, -1);
+            return (c.total > 0) ? c : null;
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Index vehicles as they are added to a world, by spawning or chunk load.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityAddToWorld(EntityAddToWorldEvent event) {
+        add(event.getEntity());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove vehicles from the index when they leave a world, for any reason.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityRemoveFromWorld(EntityRemoveFromWorldEvent event) {
+        remove(event.getEntity());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Index vehicles in chunks as their entities are loaded.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(EntitiesLoadEvent event) {
+        for (Entity entity : event.getEntities()) {
+            add(entity);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove vehicles in chunks from the index as their entities are unloaded.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesUnload(EntitiesUnloadEvent event) {
+        for (Entity entity : event.getEntities()) {
+            remove(entity);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Index newly created vehicles.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onVehicleCreate(VehicleCreateEvent event) {
+        add(event.getVehicle());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove destroyed vehicles from the index.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onVehicleDestroy(VehicleDestroyEvent event) {
+        remove(event.getVehicle());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update chunk counts when a vehicle moves across a chunk boundary.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onVehicleMove(VehicleMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        if ((from.getBlockX() >> 4) == (to.getBlockX() >> 4) &&
+            (from.getBlockZ() >> 4) == (to.getBlockZ() >> 4)) {
+            return;
+        }
+
+        Vehicle vehicle = event.getVehicle();
+        World world = vehicle.getWorld();
+        WorldIndex index = _worlds.get(world.getUID());
+        if (index != null) {
+            Tracked tracked = index.vehicles.get(vehicle.getUniqueId());
+            if (tracked != null) {
+                move(world, index, tracked, chunkKey(to));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the index of a world when it unloads.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        WorldIndex index = _worlds.remove(event.getWorld().getUID());
+        if (index != null) {
+            for (UUID uuid : index.vehicles.keySet()) {
+                VehicleControl.STATE.remove(uuid);
+                VehicleControl.MOVEMENT.remove(uuid);
+                VehicleControl.PASSENGERS.invalidate(uuid);
+                VehicleControl.OWNERS.onRemove(uuid);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The number of tracked vehicles in one chunk, in total and by category.
+     *
+     * Instances in the index are only modified inside ConcurrentHashMap
+     * compute operations on their chunk's entry; readers on other threads see
+     * counts that may be momentarily stale, which is acceptable for reporting.
+     */
+    public static final class ChunkCount {
+        /**
+         * Constructor.
+         *
+         * @param chunkKey the chunk key.
+         */
+        ChunkCount(long chunkKey) {
+            this.chunkKey = chunkKey;
+            this.categories = new int[VehiclePolicy.CATEGORIES.length];
+        }
+
+        /**
+         * Adjust the counts by a vehicle.
+         *
+         * @param category the index of the vehicle's category, or -1 if none.
+         * @param delta    +1 or -1.
+         */
+        void add(int category, int delta) {
+            total += delta;
+            if (category >= 0) {
+                categories[category] += delta;
+            }
+        }
+
+        /**
+         * Return a copy of these counts.
+         *
+         * @return a copy.
+         */
+        ChunkCount copy() {
+            ChunkCount copy = new ChunkCount(chunkKey);
+            copy.total = total;
+            System.arraycopy(categories, 0, copy.categories, 0, categories.length);
+            return copy;
+        }
+
+        /**
+         * The chunk key.
+         */
+        public final long chunkKey;
+
+        /**
+         * The total number of vehicles in the chunk.
+         */
+        public int total;
+
+        /**
+         * The number of vehicles in the chunk, indexed by category index in
+         * {@link VehiclePolicy#CATEGORIES}.
+         */
+        public final int[] categories;
+    } // class ChunkCount
+
+    // ------------------------------------------------------------------------
+    /**
+     * A tracked vehicle and the key of the chunk it was last known to be in.
+     */
+    protected static final class Tracked {
+        /**
+         * Constructor.
+         *
+         * @param vehicle  the vehicle.
+         * @param chunkKey the key of the vehicle's chunk.
+         * @param category the index of the vehicle's category, or -1 if none.
+         */
+        Tracked(Vehicle vehicle, long chunkKey, int category) {
+            this.vehicle = vehicle;
+            this.chunkKey = chunkKey;
+            this.category = category;
+        }
+
+        /**
+         * The vehicle.
+         */
+        final Vehicle vehicle;
+
+        /**
+         * The index of the vehicle's category in
+         * {@link VehiclePolicy#CATEGORIES}, or -1 if none.
+         */
+        final int category;
+
+        /**
+         * The key of the chunk the vehicle was last known to be in.
+         */
+        long chunkKey;
+    } // class Tracked
+
+    // ------------------------------------------------------------------------
+    /**
+     * The tracked vehicles and chunk counts of one world.
+     */
+    protected static final class WorldIndex {
+        /**
+         * Map from vehicle UUID to tracked vehicle.
+         */
+        final Map<UUID, Tracked> vehicles = new ConcurrentHashMap<>();
+
+        /**
+         * Map from chunk key to the counts of tracked vehicles in that chunk.
+         * Chunks without vehicles have no entry.
+         */
+        final ConcurrentHashMap<Long, ChunkCount> chunkCounts = new ConcurrentHashMap<>();
+    } // class WorldIndex
+
+    // ------------------------------------------------------------------------
+    /**
+     * Per-thread Location reused when updating the chunks of scanned
+     * vehicles, which may happen on several region threads.
+     */
+    private static final ThreadLocal<Location> SCRATCH_LOCATION =
+        ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+    /**
+     * Map from world UUID to the index of that world.
+     */
+    private final ConcurrentHashMap<UUID, WorldIndex> _worlds = new ConcurrentHashMap<>();
+} // class VehicleIndex
@@ -0,0 +1,321 @@
+package nu.nerd.vc;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Boat;
+import org.bukkit.entity.ChestBoat;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Minecart;
+import org.bukkit.entity.minecart.CommandMinecart;
+import org.bukkit.entity.minecart.ExplosiveMinecart;
+import org.bukkit.entity.minecart.HopperMinecart;
+import org.bukkit.entity.minecart.PoweredMinecart;
+import org.bukkit.entity.minecart.RideableMinecart;
+import org.bukkit.entity.minecart.SpawnerMinecart;
+import org.bukkit.entity.minecart.StorageMinecart;
+import org.bukkit.inventory.InventoryHolder;
+
+// ----------------------------------------------------------------------------
+/**
+ * How the plugin treats one type of vehicle.
+ *
+ * Policies are precomputed for every vehicle EntityType when the
+ * configuration is loaded and stored in an array indexed by the type's
+ * ordinal, so that the scan looks up a vehicle's policy with a single array
+ * access rather than a chain of instanceof checks.
+ *
+ * Each vehicle type belongs to a category (e.g. "boat", "chest-boat",
+ * "hopper-minecart"), configured under vehicles.types.&lt;category&gt;.
+ * Settings for an individual type, e.g. vehicles.types.BAMBOO_RAFT, override
+ * those of its category, and settings under worlds.&lt;world&gt;.types
+ * override both for that world.
+ */
+public class VehiclePolicy {
+    // ------------------------------------------------------------------------
+    /**
+     * What to do with the contents of a vehicle with an inventory when it is
+     * due to break.
+     */
+    public enum InventoryHandling {
+        /**
+         * Don't break the vehicle while its inventory has contents.
+         */
+        KEEP,
+
+        /**
+         * Drop the contents, then break the vehicle.
+         */
+        DROP,
+
+        /**
+         * Break the vehicle, destroying its contents.
+         */
+        DESTROY
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create the policy table from vehicles.types configuration sections.
+     *
+     * Each setting is taken from the first of the sections that sets it,
+     * looking first at the entity type's own subsection and then at its
+     * category's subsection in each section. Vehicle types whose category is
+     * not enabled have a null entry.
+     *
+     * @param config       the configuration supplying the default drop
+     *                     setting.
+     * @param emptySeconds the default timeout of empty vehicles.
+     * @param sections     the vehicles.types sections, most specific first;
+     *                     null sections are ignored.
+     * @return an array of policies indexed by EntityType ordinal.
+     */
+    public static VehiclePolicy[] createTable(Configuration config, int emptySeconds,
+                                              ConfigurationSection... sections) {
+        EntityType[] types = EntityType.values();
+        VehiclePolicy[] table = new VehiclePolicy[types.length];
+        for (EntityType type : types) {
+            String category = getCategory(type.getEntityClass());
+            if (category == null) {
+                continue;
+            }
+
+            // Type and category subsections, alternating, most specific first.
+            ConfigurationSection[] layers = new ConfigurationSection[2 * sections.length];
+            for (int i = 0; i < sections.length; ++i) {
+                if (sections[i] != null) {
+                    layers[2 * i] = sections[i].getConfigurationSection(type.name());
+                    layers[2 * i + 1] = sections[i].getConfigurationSection(category);
+                }
+            }
+            boolean enabled = getBoolean(layers, "enabled", isEnabledByDefault(category));
+            if (!enabled) {
+                continue;
+            }
+
+            String inventoryName = getString(layers, "inventory", "KEEP");
+            InventoryHandling inventory;
+            try {
+                inventory = InventoryHandling.valueOf(inventoryName.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                Configuration.getLogger().warning("Invalid inventory handling \"" + inventoryName + "\" for " +
+                                                  type + "; using KEEP.");
+                inventory = InventoryHandling.KEEP;
+            }
+            table[type.ordinal()] = new VehiclePolicy(
+                type, category, InventoryHolder.class.isAssignableFrom(type.getEntityClass()),
+                config.VEHICLES_BREAK_EMPTY ? getInt(layers, "break-empty-seconds", emptySeconds) : 0,
+                getBoolean(layers, "drop-item", config.VEHICLES_DROP_ITEM), inventory);
+        }
+        return table;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param type         the vehicle type.
+     * @param category     the configuration category of the type.
+     * @param hasInventory true if vehicles of the type are InventoryHolders.
+     * @param emptySeconds seconds after which an empty vehicle breaks.
+     * @param dropItem     if true, drop the vehicle as an item when broken.
+     * @param inventory    what to do with the contents of the inventory.
+     */
+    public VehiclePolicy(EntityType type, String category, boolean hasInventory, int emptySeconds,
+                         boolean dropItem, InventoryHandling inventory) {
+        this.type = type;
+        this.category = category;
+        this.hasInventory = hasInventory;
+        this.emptySeconds = emptySeconds;
+        this.dropItem = dropItem;
+        this.inventory = inventory;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the configuration category of a vehicle entity class.
+     *
+     * @param entityClass the entity class; may be null.
+     * @return the category name, or null if the class is not a managed
+     *         vehicle.
+     */
+    public static String getCategory(Class<? extends Entity> entityClass) {
+        if (entityClass == null) {
+            return null;
+        } else if (ChestBoat.class.isAssignableFrom(entityClass)) {
+            return "chest-boat";
+        } else if (Boat.class.isAssignableFrom(entityClass)) {
+            return "boat";
+        } else if (!Minecart.class.isAssignableFrom(entityClass)) {
+            return null;
+        } else if (RideableMinecart.class.isAssignableFrom(entityClass)) {
+            return "minecart";
+        } else if (StorageMinecart.class.isAssignableFrom(entityClass)) {
+            return "chest-minecart";
+        } else if (HopperMinecart.class.isAssignableFrom(entityClass)) {
+            return "hopper-minecart";
+        } else if (PoweredMinecart.class.isAssignableFrom(entityClass)) {
+            return "furnace-minecart";
+        } else if (ExplosiveMinecart.class.isAssignableFrom(entityClass)) {
+            return "tnt-minecart";
+        } else if (SpawnerMinecart.class.isAssignableFrom(entityClass)) {
+            return "spawner-minecart";
+        } else if (CommandMinecart.class.isAssignableFrom(entityClass)) {
+            return "command-minecart";
+        } else {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index in {@link #CATEGORIES} of a vehicle type's category.
+     *
+     * @param type the entity type.
+     * @return the category index, or -1 if the type is not a vehicle.
+     */
+    public static int getCategoryIndex(EntityType type) {
+        return CATEGORY_INDEX[type.ordinal()];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if vehicles in the category are managed when not otherwise
+     * configured.
+     *
+     * Only the categories managed by earlier versions of the plugin are
+     * enabled by default.
+     *
+     * @param category the category.
+     * @return true if enabled by default.
+     */
+    protected static boolean isEnabledByDefault(String category) {
+        return category.equals("boat") || category.equals("chest-boat") || category.equals("minecart");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the section of the first layer that sets a key.
+     *
+     * @param layers the configuration sections, most specific first; may
+     *               contain nulls.
+     * @param key    the setting.
+     * @return the section, or null if no layer sets the key.
+     */
+    protected static ConfigurationSection find(ConfigurationSection[] layers, String key) {
+        for (ConfigurationSection layer : layers) {
+            if (layer != null && layer.isSet(key)) {
+                return layer;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a boolean setting from the first layer that sets it, or failing
+     * that the default.
+     *
+     * @param layers the configuration sections, most specific first.
+     * @param key    the setting.
+     * @param def    the default value.
+     * @return the value.
+     */
+    protected static boolean getBoolean(ConfigurationSection[] layers, String key, boolean def) {
+        ConfigurationSection section = find(layers, key);
+        return (section != null) ? section.getBoolean(key) : def;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an integer setting from the first layer that sets it, or failing
+     * that the default.
+     *
+     * @param layers the configuration sections, most specific first.
+     * @param key    the setting.
+     * @param def    the default value.
+     * @return the value.
+     */
+    protected static int getInt(ConfigurationSection[] layers, String key, int def) {
+        ConfigurationSection section = find(layers, key);
+        return (section != null) ? section.getInt(key) : def;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a string setting from the first layer that sets it, or failing
+     * that the default.
+     *
+     * @param layers the configuration sections, most specific first.
+     * @param key    the setting.
+     * @param def    the default value.
+     * @return the value.
+     */
+    protected static String getString(ConfigurationSection[] layers, String key, String def) {
+        ConfigurationSection section = find(layers, key);
+        return (section != null) ? section.getString(key) : def;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return type + "(" + category + "): break-empty-seconds " + emptySeconds + ", drop-item " + dropItem +
+               (hasInventory ? ", inventory " + inventory : "");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * All vehicle categories, in a fixed order.
+     */
+    public static final String[] CATEGORIES = { "boat", "chest-boat", "minecart", "chest-minecart",
+                                                "hopper-minecart", "furnace-minecart", "tnt-minecart",
+                                                "spawner-minecart", "command-minecart" };
+
+    /**
+     * Map from EntityType ordinal to index in {@link #CATEGORIES}, or -1 for
+     * types that are not vehicles.
+     */
+    private static final int[] CATEGORY_INDEX = new int[EntityType.values().length];
+    static {
+        for (EntityType type : EntityType.values()) {
+            String category = getCategory(type.getEntityClass());
+            CATEGORY_INDEX[type.ordinal()] = (category != null) ? Arrays.asList(CATEGORIES).indexOf(category) : -1;
+        }
+    }
+
+    /**
+     * The vehicle type.
+     */
+    public final EntityType type;
+
+    /**
+     * The configuration category of the vehicle type.
+     */
+    public final String category;
+
+    /**
+     * True if vehicles of this type are InventoryHolders.
+     */
+    public final boolean hasInventory;
+
+    /**
+     * Seconds after which an empty vehicle breaks; if zero or negative, empty
+     * vehicles of this type don't break.
+     */
+    public final int emptySeconds;
+
+    /**
+     * If true, drop the vehicle as an item when broken.
+     */
+    public final boolean dropItem;
+
+    /**
+     * What to do with the contents of the vehicle's inventory, if it has one.
+     */
+    public final InventoryHandling inventory;
+} // class VehiclePolicy
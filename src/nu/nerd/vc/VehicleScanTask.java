@@ -1,20 +1,26 @@
 package nu.nerd.vc;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
-import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
 import org.bukkit.World;
-import org.bukkit.block.Chest;
 import org.bukkit.entity.*;
-import org.bukkit.entity.minecart.CommandMinecart;
-import org.bukkit.entity.minecart.HopperMinecart;
-import org.bukkit.entity.minecart.RideableMinecart;
-import org.bukkit.entity.minecart.StorageMinecart;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.metadata.MetadataValue;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
 
 // ----------------------------------------------------------------------------
 /**
@@ -27,126 +33,615 @@ import org.bukkit.metadata.MetadataValue;
 public class VehicleScanTask implements Runnable {
     // ------------------------------------------------------------------------
     /**
-     * Schedule the next run of this task.
+     * How the time that vehicles have been empty or occupied is measured.
      */
-    public void scheduleNextRun() {
-        Bukkit.getScheduler().scheduleSyncDelayedTask(VehicleControl.PLUGIN,
-                                                      this,
-                                                      20 * VehicleControl.CONFIG.SCAN_PERIOD_SECONDS);
+    public enum Timing {
+        /**
+         * By the system clock, from when a scan first finds the vehicle empty
+         * or occupied. Each such vehicle is tagged with its timeout, in the
+         * {@link VehicleStateTable} and its persistent data, and re-evaluated
+         * when the timeout expires.
+         */
+        WALL_CLOCK,
+
+        /**
+         * By the number of ticks the vehicle has lived since a passenger last
+         * got in or out. The server persists each entity's ticks lived, and
+         * the tick of the last passenger change is one persistent integer, so
+         * no per-vehicle state is kept by the plugin. Vehicles only age while
+         * loaded, and break on the first scan after their timeout.
+         */
+        TICKS_LIVED
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start running this task every tick.
+     *
+     * The first scan cycles of the scanned worlds are spread over one scan
+     * period after the task starts.
+     */
+    public void start() {
+        _rescheduleRequested = true;
+        VehicleControl.SCHEDULER.runTimer(this, 1, 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Request that the set of scanned worlds be reconciled with
+     * VehicleControl.SCAN_WORLDS on the next tick.
+     *
+     * This method should be called when the configuration is reloaded or a
+     * world loads or unloads. It can be called from any thread.
+     */
+    public void requestReschedule() {
+        _rescheduleRequested = true;
     }
 
     // ------------------------------------------------------------------------
     /**
      * @see java.lang.Runnable#run()
+     *
+     *      Each world is scanned on its own schedule. A scan cycle takes a
+     *      snapshot of the vehicles in one world. The snapshot is then
+     *      processed in slices, one per tick, each limited by the configured
+     *      tick budget, until the cursor reaches the end. The next cycle of
+     *      that world begins one scan period after the start of its previous
+     *      cycle, or as soon as possible if the previous cycle took longer
+     *      than that.
+     *
+     *      Only one world is scanned at a time: a world whose cycle is due
+     *      while another world's cycle is in progress waits for it to finish,
+     *      so the costs of scanning different worlds never fall in the same
+     *      tick.
+     *
+     *      On region threaded servers, this method runs on the global region
+     *      thread and each vehicle is checked on the thread of the region
+     *      that owns it, via {@link TaskScheduler#runForEntity(Entity,
+     *      Runnable)}. In that case, the tick budget limits the cost of
+     *      dispatching checks rather than the checks themselves.
+     *
+     *      Otherwise, with scan.offload.enabled, each slice only copies the
+     *      state of its vehicles into {@link VehicleSnapshot} batches. The
+     *      actions are decided on the decision thread pool and applied on a
+     *      later tick, at the start of the slice.
      */
     @Override
     public void run() {
-        long startNanos = System.nanoTime();
         long now = System.currentTimeMillis();
-        for (World world : VehicleControl.CONFIG.SCAN_WORLDS) {
-            scanWorld(world, now);
+        _schedule.tick();
+        drainExpired(now);
+        VehicleControl.DENSITY.drain();
+        VehicleControl.REMOVALS.drain(now);
+        VehicleControl.DROPS.tick();
+
+        if (_rescheduleRequested) {
+            _rescheduleRequested = false;
+            reschedule(now);
         }
 
-        if (VehicleControl.CONFIG.DEBUG_OVERHEAD) {
-            double elapsedMillis = (System.nanoTime() - startNanos) * 1e-6;
-            VehicleControl.PLUGIN.getLogger().info("Scan task took " + elapsedMillis + " milliseconds");
+        applyDecisions();
+        if (_active == null) {
+            _active = getDueScan(now);
+            if (_active == null) {
+                return;
+            }
+            startCycle(_active, now);
         }
 
-        scheduleNextRun();
+        long startNanos = System.nanoTime();
+        long budgetNanos = _schedule.getTickBudgetNanos();
+        boolean offload = VehicleControl.CONFIG.SCAN_OFFLOAD && !VehicleControl.SCHEDULER.isRegionThreaded();
+        Vehicle next;
+        while ((next = _active.next()) != null) {
+            Vehicle vehicle = next;
+            VehicleControl.METRICS.scanned.increment();
+            if (offload) {
+                capture(vehicle, now);
+            } else if (VehicleControl.SCHEDULER.isRegionThreaded()) {
+                VehicleControl.SCHEDULER.runForEntity(vehicle, () -> scanVehicle(vehicle, now));
+            } else {
+                // Already on the owning thread: don't allocate a task.
+                scanVehicle(vehicle, now);
+            }
+            if (System.nanoTime() - startNanos >= budgetNanos) {
+                break;
+            }
+        }
+        submitBatch();
+        _active.addTick(System.nanoTime() - startNanos);
+
+        if (_active.isCycleComplete()) {
+            _active.endCycle();
+            _active = null;
+        }
     } // run
 
     // ------------------------------------------------------------------------
     /**
-     * Perform all required tasks in the specified world.
+     * Reconcile the scanned worlds with VehicleControl.SCAN_WORLDS.
+     *
+     * Worlds that are still scanned keep their schedules, except that a cycle
+     * is not left waiting longer than the world's possibly reconfigured
+     * period. Newly scanned worlds have their first cycles offset by
+     * successive fractions of their periods, according to their position in
+     * the list, so that worlds with equal periods are evenly spread out.
      *
-     * @param world the affected world.
-     * @param now   the current system time.
+     * @param now the current system time.
      */
-    protected void scanWorld(World world, long now) {
-        for (Boat boat : world.getEntitiesByClass(Boat.class)) {
-            checkVehicle(boat, now);
+    protected void reschedule(long now) {
+        List<World> worlds = VehicleControl.SCAN_WORLDS.getWorlds();
+        HashMap<World, WorldScan> existing = new HashMap<World, WorldScan>();
+        for (WorldScan scan : _scans) {
+            existing.put(scan.getWorld(), scan);
+        }
+
+        ArrayList<WorldScan> scans = new ArrayList<WorldScan>();
+        for (int i = 0; i < worlds.size(); ++i) {
+            World world = worlds.get(i);
+            long periodMillis = MILLIS * VehicleControl.CONFIG.getWorldSettings(world).periodSeconds;
+            WorldScan scan = existing.get(world);
+            if (scan == null) {
+                scan = new WorldScan(world, now + periodMillis * (i + 1) / worlds.size());
+            } else if (!scan.isActive() && scan.getNextCycleMillis() > now + periodMillis) {
+                scan = new WorldScan(world, now + periodMillis);
+            }
+            scans.add(scan);
         }
+        if (_active != null && !scans.contains(_active)) {
+            _active = null;
+        }
+        _scans = scans;
+    }
 
-        for (RideableMinecart cart : world.getEntitiesByClass(RideableMinecart.class)) {
-            checkVehicle(cart, now);
+    // ------------------------------------------------------------------------
+    /**
+     * Return the world scan whose next cycle is the most overdue.
+     *
+     * @param now the current system time.
+     * @return the scan, or null if no cycle is due.
+     */
+    protected WorldScan getDueScan(long now) {
+        WorldScan due = null;
+        for (WorldScan scan : _scans) {
+            if (scan.getNextCycleMillis() <= now &&
+                (due == null || scan.getNextCycleMillis() < due.getNextCycleMillis())) {
+                due = scan;
+            }
         }
+        return due;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Update {@link VehicleMetadata} on a vehicle and break the vehicle if
-     * required.
+     * Re-evaluate the tagged vehicles whose timeouts have passed.
+     *
+     * Only vehicles that are due are visited. Entries for vehicles that are
+     * no longer loaded, are in worlds that are no longer scanned, or whose
+     * state no longer matches the entry, are discarded.
+     *
+     * @param now the current system time.
+     */
+    protected void drainExpired(long now) {
+        ExpiryQueue.Entry entry;
+        while ((entry = _expiryQueue.pollDue(now)) != null) {
+            Vehicle vehicle = VehicleControl.INDEX.getVehicle(entry.uuid);
+            if (vehicle != null && VehicleControl.SCAN_WORLDS.contains(vehicle.getWorld())) {
+                long deadline = entry.deadline;
+                VehicleControl.SCHEDULER.runForEntity(vehicle, () -> {
+                    if (vehicle.isValid() && isCurrentTimeOut(vehicle, deadline)) {
+                        checkVehicle(vehicle, now);
+                    }
+                });
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the vehicle is tagged with the specified timeout.
+     *
+     * @param vehicle the vehicle.
+     * @param timeOut the timeout.
+     * @return true if the vehicle is tagged with the specified timeout.
+     */
+    protected boolean isCurrentTimeOut(Vehicle vehicle, long timeOut) {
+        VehicleStateTable state = VehicleControl.STATE;
+        synchronized (state) {
+            int slot = state.find(vehicle.getUniqueId());
+            return slot >= 0 && state.getTimeOut(slot) == timeOut;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Begin a new scan cycle of one world.
+     *
+     * Only the vehicles in the {@link VehicleIndex} are visited, so the cost
+     * of the scan is proportional to the number of vehicles rather than the
+     * number of loaded entities.
+     *
+     * @param scan the world scan.
+     * @param now  the current system time.
+     */
+    protected void startCycle(WorldScan scan, long now) {
+        double radius = VehicleControl.CONFIG.VEHICLES_PROXIMITY_RADIUS;
+        _players = (radius > 0) ? samplePlayers(radius) : null;
+        scan.startCycle(now);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Build the grid of online player positions.
+     *
+     * On a region threaded server, a player's location can only be read on
+     * the thread that owns the player. Each player's entity task therefore
+     * publishes its position to _playerPositions, and the grid is built from
+     * the positions published since earlier cycles, which lag by up to one
+     * scan period.
+     *
+     * @param radius the proximity radius in blocks.
+     * @return the grid.
+     */
+    protected PlayerGrid samplePlayers(double radius) {
+        if (!VehicleControl.SCHEDULER.isRegionThreaded()) {
+            return PlayerGrid.build(Bukkit.getOnlinePlayers(), radius);
+        }
+
+        Map<UUID, Location> positions = _playerPositions;
+        positions.keySet().removeIf(id -> Bukkit.getPlayer(id) == null);
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            VehicleControl.SCHEDULER.runForEntity(player, () -> positions.put(player.getUniqueId(),
+                                                                              player.getLocation()));
+        }
+        return PlayerGrid.fromLocations(positions.values(), radius);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the schedule that determines the scan period and tick budget.
+     *
+     * @return the schedule.
+     */
+    public AdaptiveSchedule getSchedule() {
+        return _schedule;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the schedules of the scanned worlds.
+     *
+     * @return the world scans, in the order of VehicleControl.SCAN_WORLDS.
+     */
+    public List<WorldScan> getWorldScans() {
+        return Collections.unmodifiableList(_scans);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entries in the expiry queue, including stale
+     * entries.
+     *
+     * @return the number of entries in the expiry queue.
+     */
+    public int getExpiryQueueSize() {
+        return _expiryQueue.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Check a vehicle visited by the scan, if it is still loaded.
+     *
+     * This must be called on the thread that owns the vehicle.
+     *
+     * @param vehicle the vehicle.
+     * @param now     the current system time.
+     */
+    protected void scanVehicle(Vehicle vehicle, long now) {
+        if (vehicle.isValid()) {
+            VehicleControl.INDEX.updateChunk(vehicle);
+            checkVehicle(vehicle, now);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the {@link VehicleStateTable} entry of a vehicle and break the
+     * vehicle if required.
+     *
+     * The vehicle is evaluated immediately, as a {@link VehicleSnapshot} of
+     * one, so that the decision logic is the same whether or not it is
+     * offloaded.
      *
      * @param vehicle the vehicle.
      * @param now     the current system time.
      */
     protected void checkVehicle(Vehicle vehicle, long now) {
-        VehicleMetadata meta = getVehicleMetadata(vehicle);
-        List<Entity> passenger = vehicle.getPassengers();
-        if (meta == null) {
-            // If not tagged, tag the vehicle if it will break and we're done.
-            if (vehicle.isEmpty()) {
-                if (VehicleControl.CONFIG.VEHICLES_BREAK_EMPTY) {
-                    vehicle.setMetadata(VEHICLE_META_KEY,
-                                        new VehicleMetadata(false,
-                                            now + MILLIS * VehicleControl.CONFIG.VEHICLES_BREAK_EMPTY_SECONDS));
-                }
-            } else if (isBreakable(vehicle.getPassenger())) {
-                vehicle.setMetadata(VEHICLE_META_KEY,
-                                    new VehicleMetadata(true,
-                                        now + MILLIS * VehicleControl.CONFIG.VEHICLES_BREAK_WITH_PASSENGER_SECONDS));
-            } else {
-                // Won't be tagged as scheduled for a break. Log exemption.
-                if (VehicleControl.CONFIG.DEBUG_EXEMPT_VEHICLE) {
-                    StringBuilder message = new StringBuilder();
-                    message.append("Exempted ").append(vehicle.getType().name());
-                    message.append(" at ").append(formatLoc(vehicle.getLocation()));
-                    message.append(", passengers ");
-                    for (int i = 0; i < passenger.size(); i++) {
-                        Entity p = passenger.get(i);
-                        message.append(p.getType().name());
-
-                        String customName = p.getCustomName();
-                        if (customName != null && !customName.isEmpty()) {
-                            message.append("(").append(customName).append(")");
-                        }
+        VehicleSnapshot snapshot = SCRATCH_SNAPSHOT.get();
+        snapshot.begin(VehicleControl.CONFIG, vehicle.getWorld(), _players, now);
+        int i = snapshot.capture(vehicle);
+        snapshot.decide(i);
+        applyDecision(snapshot, i);
+        snapshot.clear();
+    } // checkVehicle
 
-                        if (i < passenger.size() - 1) {
-                            message.append(", ");
-                        }
-                    }
-                    VehicleControl.PLUGIN.getLogger().info(message.toString());
-                }
+    // ------------------------------------------------------------------------
+    /**
+     * Apply the decided action for a vehicle in a {@link VehicleSnapshot}.
+     *
+     * This must be called on the thread that owns the vehicle.
+     *
+     * @param snapshot the snapshot, whose actions have been decided.
+     * @param i        the index of the vehicle in the snapshot.
+     */
+    protected void applyDecision(VehicleSnapshot snapshot, int i) {
+        Vehicle vehicle = snapshot.getVehicle(i);
+        Configuration config = snapshot.getConfiguration();
+        if (snapshot.isStationaryDue(i) && breakVehicle(config, vehicle, RemovalQueue.Reason.STATIONARY)) {
+            return;
+        }
+
+        int action = snapshot.getAction(i);
+        if (action == VehicleSnapshot.TAG_EMPTY) {
+            tagVehicle(vehicle, false, snapshot.getNewTimeOut(i));
+        } else if (action == VehicleSnapshot.TAG_OCCUPIED) {
+            tagVehicle(vehicle, true, snapshot.getNewTimeOut(i));
+        } else if (action == VehicleSnapshot.UNTAG) {
+            untagVehicle(vehicle);
+        } else if (action == VehicleSnapshot.BREAK_EXPIRED) {
+            breakVehicle(config, vehicle, RemovalQueue.Reason.EXPIRED);
+        } else if (action == VehicleSnapshot.BREAK_IDLE) {
+            breakVehicle(config, vehicle, RemovalQueue.Reason.IDLE);
+        } else if (action == VehicleSnapshot.EXEMPT) {
+            // Won't be tagged as scheduled for a break. Log exemption.
+            VehicleControl.METRICS.exempted.increment();
+            if (VehicleControl.AUDIT.isEnabled(AuditLog.Action.EXEMPT)) {
+                VehicleControl.AUDIT.record(AuditLog.Action.EXEMPT, vehicle, vehicle.getLocation(),
+                                            null, vehicle.getPassengers());
             }
-        } else {
-            // Vehicle is already tagged.
-            if (now >= meta.getTimeOut()) {
-                if (passenger.isEmpty()) {
-                    breakVehicle(vehicle);
-                } else if (hasBreakablePassenger(passenger)) {
-                    if (meta.isOccupied()) {
-                        breakVehicle(vehicle);
-                    } else {
-                        meta.update(true, now + MILLIS * VehicleControl.CONFIG.VEHICLES_BREAK_WITH_PASSENGER_SECONDS);
-                    }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the state of a vehicle into the current batch, to have its action
+     * decided on the decision thread pool.
+     *
+     * @param vehicle the vehicle.
+     * @param now     the current system time.
+     */
+    protected void capture(Vehicle vehicle, long now) {
+        if (!vehicle.isValid()) {
+            return;
+        }
+
+        VehicleControl.INDEX.updateChunk(vehicle);
+        if (_batch == null) {
+            _batch = _freeBatches.poll();
+            if (_batch == null) {
+                _batch = new VehicleSnapshot(BATCH_SIZE);
+            }
+            _batch.begin(VehicleControl.CONFIG, _active.getWorld(), _players, now);
+        }
+        _batch.capture(vehicle);
+        if (_batch.isFull()) {
+            submitBatch();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Submit the current batch, if any, to the decision thread pool.
+     *
+     * Once decided, the batch is queued to have its actions applied on the
+     * next tick.
+     */
+    protected void submitBatch() {
+        VehicleSnapshot batch = _batch;
+        if (batch == null) {
+            return;
+        }
+        _batch = null;
+
+        if (_decisionPool == null) {
+            int threads = Math.max(1, VehicleControl.CONFIG.SCAN_OFFLOAD_THREADS);
+            _decisionPool = Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, VehicleControl.PLUGIN.getName() + " scan decisions");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        _decisionPool.execute(() -> {
+            try {
+                batch.decideAll();
+            } finally {
+                _decided.add(batch);
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply the actions of all batches that have been decided.
+     *
+     * Each vehicle is re-validated first: vehicles that have been unloaded,
+     * boarded, renamed or re-tagged since they were captured are skipped, and
+     * will be decided again by a later scan.
+     */
+    protected void applyDecisions() {
+        VehicleSnapshot batch;
+        while ((batch = _decided.poll()) != null) {
+            for (int i = 0; i < batch.size(); ++i) {
+                if (batch.isCurrent(i)) {
+                    applyDecision(batch, i);
                 } else {
-                    // No passengers allow break. Remove timeout.
-                    vehicle.removeMetadata(VEHICLE_META_KEY, VehicleControl.PLUGIN);
+                    VehicleControl.METRICS.stale.increment();
                 }
             }
+            batch.clear();
+            _freeBatches.add(batch);
         }
-    } // processVehicle
+    }
 
     // ------------------------------------------------------------------------
+    /**
+     * Stop the decision thread pool, discarding decisions not yet applied.
+     *
+     * Called when the plugin is disabled.
+     */
+    public void shutdown() {
+        if (_decisionPool != null) {
+            _decisionPool.shutdownNow();
+            _decisionPool = null;
+        }
+        _decided.clear();
+        _batch = null;
+    }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Sample the block position of a vehicle and return the system time since
+     * which it has been in that block.
+     *
+     * @param vehicle the vehicle.
+     * @param now     the current system time.
+     * @return the system time when the vehicle moved into its current block.
+     */
+    protected long getStationarySince(Vehicle vehicle, long now) {
+        Location loc = vehicle.getLocation(SCRATCH_LOCATION.get());
+        return VehicleControl.MOVEMENT.update(vehicle.getUniqueId(), DensityControl.blockKey(loc), now);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any of the passengers exempts a stationary vehicle from
+     * breaking.
+     *
+     * Vehicles carrying players, or passengers that are exempted by
+     * {@link #hasExemptedTypeAndName(Configuration, Entity)}, are exempt.
+     *
+     * @param config     the configuration.
+     * @param passengers the passengers of the vehicle.
+     * @return true if the vehicle is exempt.
+     */
+    protected boolean hasStationaryExemption(Configuration config, List<Entity> passengers) {
+        for (int i = 0; i < passengers.size(); ++i) {
+            Entity passenger = passengers.get(i);
+            if (passenger instanceof Player || hasExemptedTypeAndName(config, passenger)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Tag a vehicle in the {@link VehicleStateTable} with the time when it
+     * should break, and queue it to be re-evaluated at that time.
+     *
+     * The tag is also saved in the vehicle's persistent data, so that it
+     * survives chunk unloads and server restarts.
+     *
+     * @param vehicle  the vehicle.
+     * @param occupied true if the vehicle is occupied.
+     * @param timeOut  the system time at which the vehicle should break.
+     */
+    protected void tagVehicle(Vehicle vehicle, boolean occupied, long timeOut) {
+        VehicleControl.STATE.put(vehicle.getUniqueId(), occupied, timeOut);
+        _expiryQueue.add(vehicle.getUniqueId(), timeOut);
+        VehicleControl.METRICS.tagged.increment();
+
+        PersistentDataContainer pdc = vehicle.getPersistentDataContainer();
+        pdc.set(TIME_OUT_KEY, PersistentDataType.LONG, timeOut);
+        pdc.set(OCCUPIED_KEY, PersistentDataType.BOOLEAN, occupied);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the tag from a vehicle, so that it will not break.
+     *
+     * @param vehicle the vehicle.
+     */
+    protected void untagVehicle(Vehicle vehicle) {
+        VehicleControl.STATE.remove(vehicle.getUniqueId());
+
+        PersistentDataContainer pdc = vehicle.getPersistentDataContainer();
+        pdc.remove(TIME_OUT_KEY);
+        pdc.remove(OCCUPIED_KEY);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Restore the tag of a vehicle from its persistent data when it is loaded.
+     *
+     * The tag is queued for re-evaluation at its original deadline. If that
+     * deadline passed while the vehicle was unloaded (including while the
+     * server was stopped), the vehicle is re-evaluated on the next tick.
+     * Tags of vehicles in worlds that are not scanned are left in their
+     * persistent data, but not acted on.
+     *
+     * @param vehicle the vehicle.
+     */
+    public void restoreTag(Vehicle vehicle) {
+        Configuration config = VehicleControl.CONFIG;
+        if (config.VEHICLES_TIMING != Timing.WALL_CLOCK ||
+            !VehicleControl.SCAN_WORLDS.contains(vehicle.getWorld()) ||
+            VehicleControl.STATE.find(vehicle.getUniqueId()) >= 0) {
+            return;
+        }
+
+        PersistentDataContainer pdc = vehicle.getPersistentDataContainer();
+        Long timeOut = pdc.get(TIME_OUT_KEY, PersistentDataType.LONG);
+        if (timeOut != null) {
+            boolean occupied = pdc.getOrDefault(OCCUPIED_KEY, PersistentDataType.BOOLEAN, false);
+            VehicleControl.STATE.put(vehicle.getUniqueId(), occupied, timeOut);
+            _expiryQueue.add(vehicle.getUniqueId(), timeOut);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record in a vehicle's persistent data that a passenger got in or out at
+     * its current age, for the TICKS_LIVED timing.
+     *
+     * This is recorded whatever the timing, so that the timing can be changed
+     * without every vehicle appearing to have been idle since it was placed.
+     *
+     * @param vehicle the vehicle.
+     */
+    public void recordPassengerChange(Entity vehicle) {
+        vehicle.getPersistentDataContainer().set(PASSENGERS_CHANGED_KEY, PersistentDataType.INTEGER,
+                                                 vehicle.getTicksLived());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of ticks a vehicle has lived since a passenger last
+     * got in or out, or since it was created if never.
+     *
+     * @param vehicle the vehicle.
+     * @return the idle time in ticks.
+     */
+    public static int getIdleTicks(Vehicle vehicle) {
+        int ticksLived = vehicle.getTicksLived();
+        PersistentDataContainer pdc = vehicle.getPersistentDataContainer();
+        if (!pdc.has(PASSENGERS_CHANGED_KEY, PersistentDataType.INTEGER)) {
+            // Never boarded: avoid boxing the tick count.
+            return ticksLived;
+        }
+        return Math.max(0, ticksLived - pdc.get(PASSENGERS_CHANGED_KEY, PersistentDataType.INTEGER));
+    }
+
+    // ------------------------------------------------------------------------
     /**
      * Checks if any passengers of a vehicle are breakable.
+     * @param config     the configuration.
      * @param passengers the list of passengers.
      * @return true if it has a breakable passenger, false if not.
      */
-    private boolean hasBreakablePassenger(List<Entity> passengers) {
+    private boolean hasBreakablePassenger(Configuration config, List<Entity> passengers) {
         for (Entity p : passengers) {
-            if (isBreakable(p)) {
+            if (isBreakable(config, p)) {
                 return true;
             }
         }
@@ -155,65 +650,198 @@ public class VehicleScanTask implements Runnable {
 
     // ------------------------------------------------------------------------
     /**
-     * Break the vehicle, dropping the item if required and logging the action.
+     * Queue a vehicle to break in the {@link RemovalQueue}.
      *
+     * Vehicles of unmanaged types, vehicles whose inventory has contents
+     * with the KEEP policy and, except for the quota, vehicles in exempt
+     * {@link Zone}s are not queued.
+     *
+     * @param config  the configuration.
      * @param vehicle the vehicle.
+     * @param reason  the reason the vehicle is due to break.
+     * @return true if the vehicle is queued to break.
      */
-    protected void breakVehicle(Vehicle vehicle) {
-        Location loc = vehicle.getLocation();
-        World world = loc.getWorld();
-
-        ItemStack vehicleItem = null;
-        if(VehicleControl.CONFIG.VEHICLES_DROP_ITEM) {
-            if(vehicle instanceof Boat boat) {
-                if(boat instanceof ChestBoat chestBoat && !chestBoat.getInventory().isEmpty()) return;
-                vehicleItem = boat.getPickItemStack();
-            } else if(vehicle instanceof Minecart minecart) {
-                if(minecart instanceof HopperMinecart hopperMinecart && !hopperMinecart.isEmpty()) return;
-                if(minecart instanceof StorageMinecart  || minecart instanceof CommandMinecart) return;
-                vehicleItem = minecart.getPickItemStack();
+    protected boolean breakVehicle(Configuration config, Vehicle vehicle, RemovalQueue.Reason reason) {
+        VehiclePolicy policy = config.getPolicy(vehicle.getWorld(), vehicle.getType());
+        if (policy == null || !canBreak(vehicle, policy) ||
+            (reason != RemovalQueue.Reason.QUOTA && isInExemptZone(config, vehicle))) {
+            VehicleControl.METRICS.skipped.increment();
+            return false;
+        }
+        VehicleControl.REMOVALS.add(vehicle, reason);
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a vehicle is in an exempt {@link Zone}.
+     *
+     * @param config  the configuration.
+     * @param vehicle the vehicle.
+     * @return true if the vehicle is in an exempt zone.
+     */
+    protected boolean isInExemptZone(Configuration config, Vehicle vehicle) {
+        if (config.ZONES.isEmpty()) {
+            return false;
+        }
+        Zone zone = config.getZone(vehicle.getLocation(SCRATCH_LOCATION.get()));
+        return zone != null && zone.exempt;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a vehicle's contents allow it to break.
+     *
+     * @param vehicle the vehicle.
+     * @param policy  the vehicle's policy.
+     * @return false if the vehicle's inventory has contents and the policy is
+     *         to keep them.
+     */
+    protected boolean canBreak(Vehicle vehicle, VehiclePolicy policy) {
+        return !policy.hasInventory || policy.inventory != VehiclePolicy.InventoryHandling.KEEP ||
+               ((InventoryHolder) vehicle).getInventory().isEmpty();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a vehicle drained from the {@link RemovalQueue} is still
+     * due to break for the reason it was queued.
+     *
+     * Vehicles boarded by a player since they were queued are never due, nor,
+     * unless queued by the quota, are vehicles that have moved into an exempt
+     * {@link Zone}. Vehicles queued by a density limit or the quota are only
+     * due while their chunk or block, or their owner, is still over the
+     * limit.
+     *
+     * @param config  the configuration.
+     * @param vehicle the vehicle.
+     * @param reason  the reason the vehicle was queued.
+     * @param now     the current system time.
+     * @return true if the vehicle is still due to break.
+     */
+    protected boolean isStillDue(Configuration config, Vehicle vehicle, RemovalQueue.Reason reason, long now) {
+        if (DensityControl.hasPlayerPassenger(vehicle) ||
+            (reason != RemovalQueue.Reason.QUOTA && isInExemptZone(config, vehicle))) {
+            return false;
+        }
+
+        List<Entity> passengers = vehicle.getPassengers();
+        if (reason == RemovalQueue.Reason.EXPIRED) {
+            boolean occupied;
+            VehicleStateTable state = VehicleControl.STATE;
+            synchronized (state) {
+                int slot = state.find(vehicle.getUniqueId());
+                if (slot < 0 || state.getTimeOut(slot) > now) {
+                    return false;
+                }
+                occupied = state.isOccupied(slot);
             }
+            return passengers.isEmpty() || (occupied && hasBreakablePassenger(config, passengers));
+        } else if (reason == RemovalQueue.Reason.IDLE) {
+            VehicleSnapshot snapshot = SCRATCH_SNAPSHOT.get();
+            snapshot.begin(config, vehicle.getWorld(), _players, now);
+            int i = snapshot.capture(vehicle);
+            snapshot.decide(i);
+            boolean due = (snapshot.getAction(i) == VehicleSnapshot.BREAK_IDLE);
+            snapshot.clear();
+            return due;
+        } else if (reason == RemovalQueue.Reason.STATIONARY) {
+            return now - getStationarySince(vehicle, now) >=
+                   MILLIS * config.VEHICLES_BREAK_STATIONARY_SECONDS &&
+                   !hasStationaryExemption(config, passengers);
+        } else if (reason == RemovalQueue.Reason.DENSITY) {
+            return VehicleControl.DENSITY.isOverloaded(config, vehicle);
+        } else if (reason == RemovalQueue.Reason.QUOTA) {
+            return VehicleControl.OWNERS.isOverQuota(config, VehicleControl.OWNERS.getOwner(vehicle.getUniqueId()));
+        } else {
+            return true;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Break a vehicle drained from the {@link RemovalQueue}, dropping the item
+     * if required and logging the action.
+     *
+     * The vehicle is first re-validated, since it may have been boarded or
+     * otherwise changed while queued. The vehicle's {@link VehiclePolicy} in
+     * its world determines whether the item drops and how the contents of its
+     * inventory, if any, are handled.
+     *
+     * @param vehicle the vehicle.
+     * @param reason  the reason the vehicle was queued.
+     * @param now     the current system time.
+     * @return true if the vehicle was broken.
+     */
+    protected boolean removeVehicle(Vehicle vehicle, RemovalQueue.Reason reason, long now) {
+        Configuration config = VehicleControl.CONFIG;
+        if (!isStillDue(config, vehicle, reason, now)) {
+            VehicleControl.METRICS.cancelled.increment();
+            return false;
         }
 
-        if(vehicleItem != null) {
-            world.dropItem(loc, vehicleItem);
+        VehiclePolicy policy = config.getPolicy(vehicle.getWorld(), vehicle.getType());
+        if (policy == null || !canBreak(vehicle, policy)) {
+            VehicleControl.METRICS.skipped.increment();
+            return false;
         }
 
-        if (VehicleControl.CONFIG.DEBUG_BREAK_VEHICLE && vehicleItem != null) {
-            StringBuilder message = new StringBuilder();
-            message.append("Breaking ").append(vehicle.getType().name());
-            message.append(" at ").append(formatLoc(loc));
-            message.append(" dropping ").append(vehicleItem.getItemMeta().itemName());
-            List<Entity> passenger = vehicle.getPassengers();
-            if (passenger.isEmpty()) {
-                message.append(", no passengers");
-            } else {
-                message.append(", passengers ");
-                for (int i = 0; i < passenger.size(); i++) {
-                    message.append(passenger.get(i).getType().name());
-                    if (i < passenger.size() - 1) {
-                        message.append(", ");
+        Location loc = vehicle.getLocation();
+        if (policy.hasInventory) {
+            Inventory inventory = ((InventoryHolder) vehicle).getInventory();
+            if (!inventory.isEmpty()) {
+                if (policy.inventory == VehiclePolicy.InventoryHandling.DROP) {
+                    for (ItemStack item : inventory.getContents()) {
+                        if (item != null && !item.isEmpty()) {
+                            dropItem(loc, item);
+                        }
                     }
                 }
+                inventory.clear();
             }
-            VehicleControl.PLUGIN.getLogger().info(message.toString());
         }
-        if(vehicleItem != null) {
-            vehicle.remove();
+
+        ItemStack vehicleItem = policy.dropItem ? vehicle.getPickItemStack() : null;
+        if (vehicleItem != null) {
+            dropItem(loc, vehicleItem);
+        }
+
+        if (VehicleControl.AUDIT.isEnabled(AuditLog.Action.BREAK)) {
+            VehicleControl.AUDIT.record(AuditLog.Action.BREAK, vehicle, loc,
+                                        (vehicleItem != null) ? vehicleItem.getType() : null,
+                                        vehicle.getPassengers());
+        }
+        vehicle.remove();
+        VehicleControl.METRICS.broken.increment();
+        return true;
+    } // removeVehicle
+
+    // ------------------------------------------------------------------------
+    /**
+     * Drop an item at the location of a broken vehicle, or pass it to the
+     * {@link DropCoalescer} if enabled.
+     *
+     * @param loc  the location of the vehicle.
+     * @param item the item.
+     */
+    protected void dropItem(Location loc, ItemStack item) {
+        if (VehicleControl.DROPS.isEnabled()) {
+            VehicleControl.DROPS.add(loc, item);
+        } else {
+            loc.getWorld().dropItem(loc, item);
         }
-    } // breakVehicle
+    }
 
     // ------------------------------------------------------------------------
     /**
      * Return true if the passenger would allow a vehicle to be broken.
      *
+     * @param config    the configuration.
      * @param passenger the passenger, which must be non-null.
      * @return true if the passenger would allow a vehicle to be broken.
      */
-    protected boolean isBreakable(Entity passenger) {
-        return VehicleControl.CONFIG.VEHICLES_BREAK_WITH_PASSENGER &&
-               VehicleControl.CONFIG.VEHICLES_BREAK_WITH_PASSENGER_TYPES.contains(passenger.getType()) &&
-               !hasExemptedTypeAndName(passenger);
+    protected boolean isBreakable(Configuration config, Entity passenger) {
+        return config.isBreakablePassengerType(passenger.getType()) && !hasExemptedTypeAndName(config, passenger);
     }
 
     // ------------------------------------------------------------------------
@@ -221,62 +849,116 @@ public class VehicleScanTask implements Runnable {
      * Return true if the passenger is of a type that would be exempted if named
      * and has a custom name.
      *
+     * @param config    the configuration.
      * @param passenger the passenger, which must be non-null.
      * @return true if the passenger is of a type that would be exempted if
      *         named and has a custom name.
      */
-    protected boolean hasExemptedTypeAndName(Entity passenger) {
-        return VehicleControl.CONFIG.VEHICLES_EXEMPT_WITH_NAMED_PASSENGER &&
-               passenger.getCustomName() != null &&
-               VehicleControl.CONFIG.VEHICLES_EXEMPT_WITH_NAMED_PASSENGER_TYPES.contains(passenger.getType());
+    protected boolean hasExemptedTypeAndName(Configuration config, Entity passenger) {
+        return config.isExemptIfNamedType(passenger.getType()) && passenger.getCustomName() != null;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Get the VehicleMetadata of the vehicle.
-     *
-     * @param vehicle the vehicle.
-     * @return the VehicleMetadata, or null if not set.
+     * Conversion factor from seconds to milliseconds.
      */
-    protected VehicleMetadata getVehicleMetadata(Entity vehicle) {
-        List<MetadataValue> meta = vehicle.getMetadata(VEHICLE_META_KEY);
-        return (meta.size() != 0) ? (VehicleMetadata) meta.get(0) : null;
-    }
+    private static final long MILLIS = 1000;
 
-    // ------------------------------------------------------------------------
     /**
-     * Format a Location as a string containing integer coordinates.
-     *
-     * @param loc the location.
-     * @return the location as a string.
+     * Per-thread Location reused when sampling vehicle positions, since
+     * vehicles may be checked on several region threads.
      */
-    protected String formatLoc(Location loc) {
-        return loc.getWorld().getName() + ", " +
-               loc.getBlockX() + ", " +
-               loc.getBlockY() + ", " +
-               loc.getBlockZ();
-    }
+    private static final ThreadLocal<Location> SCRATCH_LOCATION =
+        ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
 
-    // ------------------------------------------------------------------------
     /**
-     * Conversion factor from seconds to milliseconds.
+     * Per-thread snapshot of a single vehicle, reused by
+     * {@link #checkVehicle(Vehicle, long)}.
      */
-    private static final long MILLIS = 1000;
+    private static final ThreadLocal<VehicleSnapshot> SCRATCH_SNAPSHOT =
+        ThreadLocal.withInitial(() -> new VehicleSnapshot(1));
+
+    /**
+     * The maximum number of vehicles in a batch decided off the tick thread.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Persistent data key of the system time at which a tagged vehicle should
+     * break.
+     */
+    private static final NamespacedKey TIME_OUT_KEY = NamespacedKey.fromString("vehiclecontrol:time-out");
+
+    /**
+     * Persistent data key of the flag recording whether a tagged vehicle was
+     * occupied by a vulnerable passenger when tagged.
+     */
+    private static final NamespacedKey OCCUPIED_KEY = NamespacedKey.fromString("vehiclecontrol:occupied");
+
+    /**
+     * Persistent data key of the ticks lived by a vehicle when a passenger
+     * last got in or out.
+     */
+    private static final NamespacedKey PASSENGERS_CHANGED_KEY =
+        NamespacedKey.fromString("vehiclecontrol:passengers-changed");
+
+    /**
+     * Tagged vehicles, ordered by the time at which they are due to break.
+     */
+    private final ExpiryQueue _expiryQueue = new ExpiryQueue();
+
+    /**
+     * The schedules of the scanned worlds; replaced, never modified, so that
+     * it can be read from other threads.
+     */
+    private volatile ArrayList<WorldScan> _scans = new ArrayList<WorldScan>();
+
+    /**
+     * The world scan whose cycle is in progress, or null if none.
+     */
+    private WorldScan _active;
+
+    /**
+     * True if the scanned worlds should be reconciled with
+     * VehicleControl.SCAN_WORLDS on the next tick.
+     */
+    private volatile boolean _rescheduleRequested;
+
+    /**
+     * Positions of online players at the start of the current cycle, or null
+     * if proximity is not configured.
+     */
+    private volatile PlayerGrid _players;
+
+    /**
+     * Map from player UUID to the position last published by the player's
+     * entity task, on region threaded servers.
+     */
+    private final Map<UUID, Location> _playerPositions = new ConcurrentHashMap<>();
+
+    /**
+     * The batch of vehicles being captured in the current tick, or null if
+     * none.
+     */
+    private VehicleSnapshot _batch;
+
+    /**
+     * Batches whose actions have been decided and are waiting to be applied.
+     */
+    private final ConcurrentLinkedQueue<VehicleSnapshot> _decided = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Applied batches available for reuse.
+     */
+    private final ConcurrentLinkedQueue<VehicleSnapshot> _freeBatches = new ConcurrentLinkedQueue<>();
 
     /**
-     * Look up table mapping TreeSpecies ordinal (boat type) to corresponding
-     * dropped boat item type.
+     * Threads on which batches are decided, created when first needed.
      */
-    private static final Material BOAT_DROP_TABLE[] = {
-            Material.OAK_BOAT, Material.SPRUCE_BOAT,
-            Material.BIRCH_BOAT, Material.JUNGLE_BOAT,
-            Material.ACACIA_BOAT, Material.CHERRY_BOAT,
-            Material.DARK_OAK_BOAT, Material.MANGROVE_BOAT,
-            Material.BAMBOO_RAFT
-    };
+    private ExecutorService _decisionPool;
 
     /**
-     * Metadata key for storing the VehicleMetadata on a vehicle.
+     * Determines the scan period and tick budget.
      */
-    private static final String VEHICLE_META_KEY = "VC_Meta";
+    private final AdaptiveSchedule _schedule = new AdaptiveSchedule();
 } // class VehicleScanTask
\ No newline at end of file
@@ -0,0 +1,733 @@
+package nu.nerd.vc;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Vehicle;
+
+// ----------------------------------------------------------------------------
+/**
+ * The state of a batch of vehicles from one world, copied into primitive
+ * arrays so that the scan's decisions can be computed away from the thread
+ * that owns the vehicles.
+ *
+ * Processing a batch has three stages:
+ * <ol>
+ * <li>{@link #capture(Vehicle)}, on the thread that owns the vehicles, copies
+ * each vehicle's type, passenger types, passenger name flags, tag (or idle
+ * ticks, with the TICKS_LIVED timing) and stationary time, samples its
+ * position and finds the zone containing it.</li>
+ * <li>{@link #decide(int)} computes the action for each vehicle from the
+ * copied state and the batch's configuration snapshot alone, so it can run on
+ * any thread.</li>
+ * <li>{@link VehicleScanTask} applies the actions on the owning thread, after
+ * checking with {@link #isCurrent(int)} that each vehicle has not changed in
+ * the meantime.</li>
+ * </ol>
+ *
+ * Batches are reused once their actions have been applied.
+ */
+public class VehicleSnapshot {
+    // ------------------------------------------------------------------------
+    /**
+     * Action: do nothing.
+     */
+    public static final int NONE = 0;
+
+    /**
+     * Action: tag the vehicle as empty, to break at the new timeout.
+     */
+    public static final int TAG_EMPTY = 1;
+
+    /**
+     * Action: tag the vehicle as occupied, to break at the new timeout.
+     */
+    public static final int TAG_OCCUPIED = 2;
+
+    /**
+     * Action: remove the vehicle's tag.
+     */
+    public static final int UNTAG = 3;
+
+    /**
+     * Action: the vehicle is exempted from breaking by its passenger.
+     */
+    public static final int EXEMPT = 4;
+
+    /**
+     * Action: queue the vehicle to break because its timeout expired.
+     */
+    public static final int BREAK_EXPIRED = 5;
+
+    /**
+     * Action: queue the vehicle to break because it has been idle for longer
+     * than its timeout, measured in ticks lived.
+     */
+    public static final int BREAK_IDLE = 6;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of vehicles in the batch.
+     */
+    public VehicleSnapshot(int capacity) {
+        _vehicles = new Vehicle[capacity];
+        _types = new int[capacity];
+        _passengerCounts = new int[capacity];
+        _passengerTypes = new int[MAX_PASSENGERS * capacity];
+        _flags = new int[capacity];
+        _timeOuts = new long[capacity];
+        _idleTicks = new int[capacity];
+        _stationarySince = new long[capacity];
+        _x = new double[capacity];
+        _y = new double[capacity];
+        _z = new double[capacity];
+        _vehicleZones = new Zone[capacity];
+        _actions = new int[capacity];
+        _newTimeOuts = new long[capacity];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Prepare an empty batch to capture vehicles from a world.
+     *
+     * @param config  the configuration snapshot used to decide the actions.
+     * @param world   the world of the vehicles.
+     * @param players the positions of online players, or null if proximity
+     *                is not configured.
+     * @param now     the current system time.
+     */
+    public void begin(Configuration config, World world, PlayerGrid players, long now) {
+        _config = config;
+        _settings = config.getWorldSettings(world);
+        _zones = config.getZoneIndex(world);
+        _ticksLived = (config.VEHICLES_TIMING == VehicleScanTask.Timing.TICKS_LIVED);
+        _world = world;
+        _players = players;
+        _now = now;
+        _size = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Release the references held by the batch, so that it can be reused.
+     */
+    public void clear() {
+        for (int i = 0; i < _size; ++i) {
+            _vehicles[i] = null;
+            _vehicleZones[i] = null;
+        }
+        _size = 0;
+        _config = null;
+        _settings = null;
+        _zones = null;
+        _world = null;
+        _players = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the batch has no room for more vehicles.
+     *
+     * @return true if the batch is full.
+     */
+    public boolean isFull() {
+        return _size == _vehicles.length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of vehicles in the batch.
+     *
+     * @return the number of vehicles.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the configuration snapshot that the batch's actions were decided
+     * with.
+     *
+     * @return the configuration.
+     */
+    public Configuration getConfiguration() {
+        return _config;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the state of a vehicle into the next entry of the batch.
+     *
+     * This must be called on the thread that owns the vehicle. Sampling the
+     * vehicle's position for vehicles.break-stationary updates the
+     * {@link MovementTable}. Passengers beyond the first
+     * {@link #MAX_PASSENGERS} are rare, so their effect on the decision is
+     * summarised here rather than copied.
+     *
+     * Capturing allocates nothing in the steady state: the server builds a
+     * new list on every call to getPassengers(), so the passengers are read
+     * from the {@link PassengerCache}, and only for managed vehicles outside
+     * exempt zones that are not empty.
+     *
+     * @param vehicle the vehicle, which must be in the batch's world.
+     * @return the index of the vehicle in the batch.
+     */
+    public int capture(Vehicle vehicle) {
+        int i = _size++;
+        _vehicles[i] = vehicle;
+        _types[i] = vehicle.getType().ordinal();
+
+        Configuration config = _config;
+        VehiclePolicy policy = _settings.getPolicy(_types[i]);
+        boolean sampleMovement = config.VEHICLES_BREAK_STATIONARY && policy != null;
+        if (sampleMovement || _players != null || _zones != null) {
+            Location loc = vehicle.getLocation(_location);
+            _x[i] = loc.getX();
+            _y[i] = loc.getY();
+            _z[i] = loc.getZ();
+            if (sampleMovement) {
+                _stationarySince[i] = VehicleControl.MOVEMENT.update(vehicle.getUniqueId(),
+                                                                     DensityControl.blockKey(loc), _now);
+            }
+        }
+        Zone zone = (_zones != null && policy != null)
+            ? _zones.find(toBlock(_x[i]), toBlock(_y[i]), toBlock(_z[i]))
+            : null;
+        _vehicleZones[i] = zone;
+
+        int flags = 0;
+        PassengerCache.Passengers passengers = null;
+        if (policy == null || (zone != null && zone.exempt)) {
+            flags |= UNCOUNTED;
+        } else if (!vehicle.isEmpty()) {
+            passengers = VehicleControl.PASSENGERS.get(vehicle);
+        }
+        int count = (passengers != null) ? passengers.size() : 0;
+        _passengerCounts[i] = count;
+        if (passengers != null && passengers.hasPlayer()) {
+            flags |= PLAYER;
+        }
+        for (int j = 0; j < count; ++j) {
+            int type = passengers.getType(j);
+            boolean named = passengers.isNamed(j);
+            if (j < MAX_PASSENGERS) {
+                _passengerTypes[MAX_PASSENGERS * i + j] = type;
+                if (named) {
+                    flags |= NAMED << j;
+                }
+            } else if (config.isExemptIfNamedType(type) && named) {
+                flags |= EXTRA_EXEMPT;
+            } else if (config.isBreakablePassengerType(type)) {
+                flags |= EXTRA_BREAKABLE;
+            }
+        }
+
+        if (_ticksLived) {
+            _idleTicks[i] = ((flags & UNCOUNTED) != 0) ? 0 : VehicleScanTask.getIdleTicks(vehicle);
+        } else {
+            VehicleStateTable state = VehicleControl.STATE;
+            synchronized (state) {
+                int slot = state.find(vehicle.getUniqueId());
+                if (slot >= 0) {
+                    flags |= TAGGED;
+                    if (state.isOccupied(slot)) {
+                        flags |= OCCUPIED;
+                    }
+                    _timeOuts[i] = state.getTimeOut(slot);
+                }
+            }
+        }
+        _flags[i] = flags;
+        return i;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decide the action for every vehicle in the batch.
+     *
+     * This can be called on any thread.
+     */
+    public void decideAll() {
+        for (int i = 0; i < _size; ++i) {
+            decide(i);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decide the action for one vehicle in the batch.
+     *
+     * The decision depends only on the copied state of the vehicle and the
+     * batch's configuration, world settings, zones and player positions, none
+     * of which are modified, so this can be called on any thread.
+     *
+     * @param i the index of the vehicle in the batch.
+     */
+    public void decide(int i) {
+        Configuration config = _config;
+        long now = _now;
+        int flags = _flags[i];
+        boolean tagged = (flags & TAGGED) != 0;
+        _newTimeOuts[i] = 0;
+
+        VehiclePolicy policy = _settings.getPolicy(_types[i]);
+        if (policy == null) {
+            // Not a managed type, or no longer managed since reconfiguration.
+            _actions[i] = tagged ? UNTAG : NONE;
+            return;
+        }
+
+        Zone zone = _vehicleZones[i];
+        if (zone != null && zone.exempt) {
+            _actions[i] = tagged ? UNTAG : NONE;
+            return;
+        }
+        int emptySeconds = (zone != null && zone.emptySeconds >= 0) ? zone.emptySeconds
+                                                                    : getEmptySeconds(i, policy);
+        int passengerSeconds = (zone != null && zone.breakWithPassengerSeconds >= 0)
+            ? zone.breakWithPassengerSeconds
+            : _settings.breakWithPassengerSeconds;
+
+        int action = NONE;
+        if (config.VEHICLES_BREAK_STATIONARY &&
+            now - _stationarySince[i] >= MILLIS * config.VEHICLES_BREAK_STATIONARY_SECONDS &&
+            !hasStationaryExemption(i)) {
+            action |= BREAK_STATIONARY;
+        }
+
+        int count = _passengerCounts[i];
+        if (_ticksLived) {
+            // Stateless: the vehicle is due once idle for long enough.
+            if (count == 0) {
+                if (emptySeconds > 0 && _idleTicks[i] >= TICKS_PER_SECOND * emptySeconds) {
+                    action |= BREAK_IDLE;
+                }
+            } else if (hasBreakablePassenger(i)) {
+                if (_idleTicks[i] >= TICKS_PER_SECOND * passengerSeconds) {
+                    action |= BREAK_IDLE;
+                }
+            } else {
+                action |= EXEMPT;
+            }
+        } else if (!tagged) {
+            // If not tagged, tag the vehicle if it will break and we're done.
+            if (count == 0) {
+                if (emptySeconds > 0) {
+                    action |= TAG_EMPTY;
+                    _newTimeOuts[i] = now + MILLIS * emptySeconds;
+                }
+            } else if (isBreakable(i, 0)) {
+                action |= TAG_OCCUPIED;
+                _newTimeOuts[i] = now + MILLIS * passengerSeconds;
+            } else {
+                action |= EXEMPT;
+            }
+        } else if (now >= _timeOuts[i]) {
+            if (count == 0) {
+                action |= BREAK_EXPIRED;
+            } else if (hasBreakablePassenger(i)) {
+                if ((flags & OCCUPIED) != 0) {
+                    action |= BREAK_EXPIRED;
+                } else {
+                    action |= TAG_OCCUPIED;
+                    _newTimeOuts[i] = now + MILLIS * passengerSeconds;
+                }
+            } else {
+                // No passengers allow break. Remove timeout.
+                action |= UNTAG;
+            }
+        }
+        _actions[i] = action;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a vehicle in the batch is still loaded, in the batch's
+     * world and in the state that was captured, so that its decided action
+     * still applies.
+     *
+     * This must be called on the thread that owns the vehicle.
+     *
+     * @param i the index of the vehicle in the batch.
+     * @return true if the vehicle is unchanged.
+     */
+    public boolean isCurrent(int i) {
+        Vehicle vehicle = _vehicles[i];
+        if (!vehicle.isValid() || vehicle.getWorld() != _world) {
+            return false;
+        }
+
+        if ((_flags[i] & UNCOUNTED) != 0) {
+            // Passengers were not captured, as they don't affect the action.
+        } else if (_passengerCounts[i] == 0) {
+            if (!vehicle.isEmpty()) {
+                return false;
+            }
+        } else if (!isCurrentPassengers(vehicle, i)) {
+            return false;
+        }
+
+        if (_ticksLived) {
+            return true;
+        }
+        VehicleStateTable state = VehicleControl.STATE;
+        synchronized (state) {
+            int slot = state.find(vehicle.getUniqueId());
+            boolean tagged = (_flags[i] & TAGGED) != 0;
+            return (slot >= 0) == tagged && (!tagged || state.getTimeOut(slot) == _timeOuts[i]);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the passengers of a vehicle in the batch have the
+     * captured number, types and name flags.
+     *
+     * @param vehicle the vehicle.
+     * @param i       the index of the vehicle in the batch.
+     * @return true if the passengers are unchanged.
+     */
+    protected boolean isCurrentPassengers(Vehicle vehicle, int i) {
+        PassengerCache.Passengers passengers = VehicleControl.PASSENGERS.get(vehicle);
+        int count = passengers.size();
+        if (count != _passengerCounts[i]) {
+            return false;
+        }
+        for (int j = 0; j < count && j < MAX_PASSENGERS; ++j) {
+            if (passengers.getType(j) != _passengerTypes[MAX_PASSENGERS * i + j] ||
+                passengers.isNamed(j) != ((_flags[i] & (NAMED << j)) != 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a vehicle in the batch.
+     *
+     * @param i the index of the vehicle in the batch.
+     * @return the vehicle.
+     */
+    public Vehicle getVehicle(int i) {
+        return _vehicles[i];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the decided action for a vehicle, one of {@link #NONE},
+     * {@link #TAG_EMPTY}, {@link #TAG_OCCUPIED}, {@link #UNTAG},
+     * {@link #EXEMPT}, {@link #BREAK_EXPIRED} or {@link #BREAK_IDLE}.
+     *
+     * @param i the index of the vehicle in the batch.
+     * @return the action.
+     */
+    public int getAction(int i) {
+        return _actions[i] & ~BREAK_STATIONARY;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the vehicle should first be queued to break for being
+     * stationary, in which case {@link #getAction(int)} only applies if the
+     * vehicle can't be broken.
+     *
+     * @param i the index of the vehicle in the batch.
+     * @return true if the vehicle is due to break for being stationary.
+     */
+    public boolean isStationaryDue(int i) {
+        return (_actions[i] & BREAK_STATIONARY) != 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the timeout for the {@link #TAG_EMPTY} and {@link #TAG_OCCUPIED}
+     * actions.
+     *
+     * @param i the index of the vehicle in the batch.
+     * @return the system time at which the vehicle should break.
+     */
+    public long getNewTimeOut(int i) {
+        return _newTimeOuts[i];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the timeout, in seconds, of an empty vehicle outside any zone
+     * that sets its own timeout.
+     *
+     * If proximity is configured and no player was within the radius at the
+     * start of the scan cycle, the shorter of the policy's timeout and the
+     * far timeout is used.
+     *
+     * @param i      the index of the vehicle in the batch.
+     * @param policy the vehicle's policy.
+     * @return the timeout in seconds.
+     */
+    protected int getEmptySeconds(int i, VehiclePolicy policy) {
+        PlayerGrid players = _players;
+        if (players == null || players.isNear(_world, _x[i], _z[i])) {
+            return policy.emptySeconds;
+        }
+        return Math.min(policy.emptySeconds, _config.VEHICLES_PROXIMITY_FAR_BREAK_EMPTY_SECONDS);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any of the passengers exempts a stationary vehicle from
+     * breaking: a player, or a named passenger of a type exempted if named.
+     *
+     * @param i the index of the vehicle in the batch.
+     * @return true if the vehicle is exempt.
+     */
+    protected boolean hasStationaryExemption(int i) {
+        if ((_flags[i] & (PLAYER | EXTRA_EXEMPT)) != 0) {
+            return true;
+        }
+        int captured = Math.min(_passengerCounts[i], MAX_PASSENGERS);
+        for (int j = 0; j < captured; ++j) {
+            if (hasExemptedTypeAndName(i, j)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any of the passengers would allow the vehicle to break.
+     *
+     * @param i the index of the vehicle in the batch.
+     * @return true if it has a breakable passenger.
+     */
+    protected boolean hasBreakablePassenger(int i) {
+        if ((_flags[i] & EXTRA_BREAKABLE) != 0) {
+            return true;
+        }
+        int captured = Math.min(_passengerCounts[i], MAX_PASSENGERS);
+        for (int j = 0; j < captured; ++j) {
+            if (isBreakable(i, j)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a passenger would allow the vehicle to break.
+     *
+     * @param i the index of the vehicle in the batch.
+     * @param j the index of the passenger; less than {@link #MAX_PASSENGERS}.
+     * @return true if the passenger would allow the vehicle to break.
+     */
+    protected boolean isBreakable(int i, int j) {
+        return _config.isBreakablePassengerType(_passengerTypes[MAX_PASSENGERS * i + j]) &&
+               !hasExemptedTypeAndName(i, j);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a passenger is of a type that would be exempted if named
+     * and has a custom name.
+     *
+     * @param i the index of the vehicle in the batch.
+     * @param j the index of the passenger; less than {@link #MAX_PASSENGERS}.
+     * @return true if the passenger is named and exempted.
+     */
+    protected boolean hasExemptedTypeAndName(int i, int j) {
+        return (_flags[i] & (NAMED << j)) != 0 &&
+               _config.isExemptIfNamedType(_passengerTypes[MAX_PASSENGERS * i + j]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the block coordinate containing a position coordinate.
+     *
+     * @param coordinate the position coordinate.
+     * @return the block coordinate.
+     */
+    protected static int toBlock(double coordinate) {
+        return (int) Math.floor(coordinate);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The number of passengers of each vehicle whose types and names are
+     * copied. Boats carry at most two.
+     */
+    public static final int MAX_PASSENGERS = 2;
+
+    /**
+     * Flag: the vehicle is tagged.
+     */
+    private static final int TAGGED = 1;
+
+    /**
+     * Flag: the vehicle was tagged as occupied.
+     */
+    private static final int OCCUPIED = 2;
+
+    /**
+     * Flag: a passenger is a player.
+     */
+    private static final int PLAYER = 4;
+
+    /**
+     * Flag: an uncopied passenger is named and of a type exempted if named.
+     */
+    private static final int EXTRA_EXEMPT = 8;
+
+    /**
+     * Flag: an uncopied passenger would allow the vehicle to break.
+     */
+    private static final int EXTRA_BREAKABLE = 16;
+
+    /**
+     * Flag: the first copied passenger is named; shifted left by the index
+     * of the passenger for the others.
+     */
+    private static final int NAMED = 32;
+
+    /**
+     * Flag: the passengers were not captured because they can't affect the
+     * action, as the vehicle's type is unmanaged or it is in an exempt zone.
+     */
+    private static final int UNCOUNTED = 128;
+
+    /**
+     * Action flag: queue the vehicle to break for being stationary first.
+     */
+    private static final int BREAK_STATIONARY = 256;
+
+    /**
+     * Conversion factor from seconds to milliseconds.
+     */
+    private static final long MILLIS = 1000;
+
+    /**
+     * Nominal number of ticks per second.
+     */
+    private static final int TICKS_PER_SECOND = 20;
+
+    /**
+     * The configuration snapshot used to decide the actions.
+     */
+    private Configuration _config;
+
+    /**
+     * The settings of the batch's world in _config.
+     */
+    private WorldSettings _settings;
+
+    /**
+     * The world of the vehicles.
+     */
+    private World _world;
+
+    /**
+     * True if idle time is measured in ticks lived rather than by tags.
+     */
+    private boolean _ticksLived;
+
+    /**
+     * The index of the zones in the batch's world, or null if none.
+     */
+    private ZoneIndex _zones;
+
+    /**
+     * The positions of online players, or null if proximity is not
+     * configured.
+     */
+    private PlayerGrid _players;
+
+    /**
+     * The system time when the batch was captured.
+     */
+    private long _now;
+
+    /**
+     * The number of vehicles in the batch.
+     */
+    private int _size;
+
+    /**
+     * Location reused when sampling vehicle positions.
+     */
+    private final Location _location = new Location(null, 0, 0, 0);
+
+    /**
+     * The vehicles.
+     */
+    private final Vehicle[] _vehicles;
+
+    /**
+     * The EntityType ordinal of each vehicle.
+     */
+    private final int[] _types;
+
+    /**
+     * The number of passengers of each vehicle.
+     */
+    private final int[] _passengerCounts;
+
+    /**
+     * The EntityType ordinals of the first {@link #MAX_PASSENGERS} passengers
+     * of each vehicle, at MAX_PASSENGERS * i + j.
+     */
+    private final int[] _passengerTypes;
+
+    /**
+     * Bitwise OR of the flag constants for each vehicle.
+     */
+    private final int[] _flags;
+
+    /**
+     * The timeout of each tagged vehicle.
+     */
+    private final long[] _timeOuts;
+
+    /**
+     * The number of ticks each vehicle has lived since a passenger last got
+     * in or out, with the TICKS_LIVED timing.
+     */
+    private final int[] _idleTicks;
+
+    /**
+     * The system time since which each vehicle has been in its current block,
+     * if sampled.
+     */
+    private final long[] _stationarySince;
+
+    /**
+     * The X coordinate of each vehicle, if sampled.
+     */
+    private final double[] _x;
+
+    /**
+     * The Y coordinate of each vehicle, if sampled.
+     */
+    private final double[] _y;
+
+    /**
+     * The Z coordinate of each vehicle, if sampled.
+     */
+    private final double[] _z;
+
+    /**
+     * The zone containing each vehicle of a managed type, or null.
+     */
+    private final Zone[] _vehicleZones;
+
+    /**
+     * The decided action of each vehicle, possibly with BREAK_STATIONARY.
+     */
+    private final int[] _actions;
+
+    /**
+     * The new timeout of each vehicle to be tagged.
+     */
+    private final long[] _newTimeOuts;
+} // class VehicleSnapshot
@@ -0,0 +1,260 @@
+package nu.nerd.vc;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+// ----------------------------------------------------------------------------
+/**
+ * Plugin-owned state of vehicles that will break in the future.
+ *
+ * For each tagged vehicle, the table records the system time at which the
+ * vehicle is due to break, and whether that was computed on the basis of it
+ * being occupied by a vulnerable passenger (if not, a new passenger could
+ * extend the timeout, or invalidate it).
+ *
+ * The table is an open-addressed hash table with linear probing, keyed by the
+ * two halves of the vehicle's UUID, stored in parallel primitive arrays. This
+ * avoids allocating any objects per vehicle, and the memory footprint per
+ * vehicle is a small constant, reported by {@link #getMemoryBytes()}.
+ *
+ * The table only holds loaded vehicles. Tags are also saved in the vehicles'
+ * persistent data and restored into the table when the vehicles load.
+ *
+ * Slot indices returned by {@link #find(UUID)} are only valid until the next
+ * call to {@link #put(UUID, boolean, long)} or {@link #remove(UUID)}. All
+ * methods synchronize on the table, so on region threaded servers, callers
+ * that use slot indices must hold the table's monitor between the call to
+ * find() and the use of the slot.
+ */
+public class VehicleStateTable {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the slot holding the state of the specified vehicle.
+     *
+     * @param uuid the vehicle's UUID.
+     * @return the slot index, or -1 if the vehicle is not in the table.
+     */
+    public synchronized int find(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = _flags.length - 1;
+        for (int slot = hash(msb, lsb) & mask; _flags[slot] != 0; slot = (slot + 1) & mask) {
+            if (_msb[slot] == msb && _lsb[slot] == lsb) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the system time when the vehicle in the specified slot should
+     * break.
+     *
+     * @param slot the slot index returned by {@link #find(UUID)}.
+     * @return the system time when the vehicle should break.
+     */
+    public synchronized long getTimeOut(int slot) {
+        return _timeOut[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the state in the specified slot was set when the vehicle
+     * was occupied by a vulnerable passenger.
+     *
+     * @param slot the slot index returned by {@link #find(UUID)}.
+     * @return true if the vehicle was occupied.
+     */
+    public synchronized boolean isOccupied(int slot) {
+        return (_flags[slot] & OCCUPIED) != 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the occupied state and timeout time stamp of a vehicle, adding it to
+     * the table if necessary.
+     *
+     * @param uuid     the vehicle's UUID.
+     * @param occupied true if the vehicle is occupied.
+     * @param timeOut  the system time when the vehicle should break.
+     */
+    public synchronized void put(UUID uuid, boolean occupied, long timeOut) {
+        if (2 * (_size + 1) > _flags.length) {
+            resize(2 * _flags.length);
+        }
+
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = _flags.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (_flags[slot] != 0 && (_msb[slot] != msb || _lsb[slot] != lsb)) {
+            slot = (slot + 1) & mask;
+        }
+        if (_flags[slot] == 0) {
+            ++_size;
+            _msb[slot] = msb;
+            _lsb[slot] = lsb;
+        }
+        _timeOut[slot] = timeOut;
+        _flags[slot] = (byte) (USED | (occupied ? OCCUPIED : 0));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the state of a vehicle.
+     *
+     * Entries following the removed slot in the same probe sequence are
+     * shifted back, so that no tombstones are required.
+     *
+     * @param uuid the vehicle's UUID.
+     */
+    public synchronized void remove(UUID uuid) {
+        int slot = find(uuid);
+        if (slot < 0) {
+            return;
+        }
+
+        int mask = _flags.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; _flags[next] != 0; next = (next + 1) & mask) {
+            int home = hash(_msb[next], _lsb[next]) & mask;
+            // Move next into the hole if its home slot is not cyclically in
+            // (hole, next].
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                _msb[hole] = _msb[next];
+                _lsb[hole] = _lsb[next];
+                _timeOut[hole] = _timeOut[next];
+                _flags[hole] = _flags[next];
+                hole = next;
+            }
+        }
+        _flags[hole] = 0;
+        --_size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of vehicles in the table.
+     *
+     * @return the number of vehicles in the table.
+     */
+    public synchronized int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the approximate number of bytes of heap used by the table's
+     * arrays.
+     *
+     * @return the approximate number of bytes of heap used by the table.
+     */
+    public synchronized long getMemoryBytes() {
+        return (long) _flags.length * BYTES_PER_SLOT;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all vehicles.
+     */
+    public synchronized void clear() {
+        Arrays.fill(_flags, (byte) 0);
+        _size = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rehash all entries into arrays of the specified capacity.
+     *
+     * @param capacity the new capacity; must be a power of two.
+     */
+    protected void resize(int capacity) {
+        long[] oldMsb = _msb;
+        long[] oldLsb = _lsb;
+        long[] oldTimeOut = _timeOut;
+        byte[] oldFlags = _flags;
+
+        _msb = new long[capacity];
+        _lsb = new long[capacity];
+        _timeOut = new long[capacity];
+        _flags = new byte[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldFlags.length; ++i) {
+            if (oldFlags[i] != 0) {
+                int slot = hash(oldMsb[i], oldLsb[i]) & mask;
+                while (_flags[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                _msb[slot] = oldMsb[i];
+                _lsb[slot] = oldLsb[i];
+                _timeOut[slot] = oldTimeOut[i];
+                _flags[slot] = oldFlags[i];
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Hash the two halves of a UUID.
+     *
+     * Version 4 UUIDs are mostly random, but the mixing step guards against
+     * clustering from non-random UUIDs.
+     *
+     * @param msb the most significant 64 bits of the UUID.
+     * @param lsb the least significant 64 bits of the UUID.
+     * @return the hash.
+     */
+    protected static int hash(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Flag set in occupied slots.
+     */
+    private static final byte USED = 1;
+
+    /**
+     * Flag set if the vehicle was occupied by a vulnerable passenger.
+     */
+    private static final byte OCCUPIED = 2;
+
+    /**
+     * Bytes of array storage per slot: two UUID halves, the timeout and the
+     * flags.
+     */
+    private static final int BYTES_PER_SLOT = 8 + 8 + 8 + 1;
+
+    /**
+     * Initial capacity of the table; must be a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Most significant bits of the UUID of the vehicle in each slot.
+     */
+    private long[] _msb = new long[INITIAL_CAPACITY];
+
+    /**
+     * Least significant bits of the UUID of the vehicle in each slot.
+     */
+    private long[] _lsb = new long[INITIAL_CAPACITY];
+
+    /**
+     * System time at which the vehicle in each slot should break.
+     */
+    private long[] _timeOut = new long[INITIAL_CAPACITY];
+
+    /**
+     * Flags of each slot; 0 if the slot is empty.
+     */
+    private byte[] _flags = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Number of vehicles in the table.
+     */
+    private int _size;
+} // class VehicleStateTable
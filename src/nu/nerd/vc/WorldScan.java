@@ -0,0 +1,276 @@
+package nu.nerd.vc;
+
+import java.util.ArrayList;
+
+import org.bukkit.World;
+import org.bukkit.entity.Vehicle;
+
+// ----------------------------------------------------------------------------
+/**
+ * The scan schedule and the progress of the current scan cycle of one world.
+ *
+ * Each scanned world has its own period, from its {@link WorldSettings} or
+ * the {@link AdaptiveSchedule}, and its own next cycle start time, so that the
+ * cost of scanning each world is incurred separately.
+ *
+ * With scan.load-level.enabled, each cycle visits the vehicles in entity
+ * ticking chunks, which cost tick time, before those in border or lazy
+ * chunks, which don't. The latter are only visited every
+ * scan.load-level.non-ticking-cycles cycles; in between, they are picked up
+ * as soon as a cycle finds their chunk entity ticking.
+ */
+public class WorldScan {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param world           the world.
+     * @param nextCycleMillis the system time at which the first cycle should
+     *                        begin.
+     */
+    public WorldScan(World world, long nextCycleMillis) {
+        _world = world;
+        _nextCycleMillis = nextCycleMillis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the world.
+     *
+     * @return the world.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a cycle is in progress.
+     *
+     * @return true if a cycle is in progress.
+     */
+    public boolean isActive() {
+        return _cycle != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the system time at which the next cycle should begin.
+     *
+     * @return the system time at which the next cycle should begin.
+     */
+    public long getNextCycleMillis() {
+        return _nextCycleMillis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Begin a new cycle by taking a snapshot of the world's vehicles and
+     * schedule the next cycle.
+     *
+     * The vehicle growth rate is measured since the start of the previous
+     * cycle and, with the world's base period, determines the period until the
+     * next cycle.
+     *
+     * @param now the current system time.
+     */
+    public void startCycle(long now) {
+        Configuration config = VehicleControl.CONFIG;
+        int population;
+        ++_cycleNumber;
+        if (config.SCAN_LOAD_LEVEL && !VehicleControl.SCHEDULER.isRegionThreaded()) {
+            ArrayList<Vehicle> ticking = new ArrayList<Vehicle>();
+            ArrayList<Vehicle> nonTicking = new ArrayList<Vehicle>();
+            VehicleControl.INDEX.getVehiclesByLoadLevel(_world, ticking, nonTicking);
+            population = ticking.size() + nonTicking.size();
+
+            int cycles = config.SCAN_LOAD_LEVEL_NON_TICKING_CYCLES;
+            if (cycles > 0 && _cycleNumber % cycles == 0) {
+                ticking.addAll(nonTicking);
+                _deferred = 0;
+            } else {
+                _deferred = nonTicking.size();
+                VehicleControl.METRICS.deferred.add(_deferred);
+            }
+            _cycle = ticking;
+        } else {
+            _cycle = VehicleControl.INDEX.getVehicles(_world);
+            population = _cycle.size();
+            _deferred = 0;
+        }
+        _cursor = 0;
+        _cycleNanos = 0;
+        _cycleTicks = 0;
+
+        double growthPerMinute = 0;
+        if (_lastCycleMillis != 0 && now > _lastCycleMillis) {
+            growthPerMinute = Math.max(0, population - _lastPopulation) * 60000.0 / (now - _lastCycleMillis);
+        }
+        _lastCycleMillis = now;
+        _lastPopulation = population;
+        _growthPerMinute = growthPerMinute;
+
+        int basePeriodSeconds = config.getWorldSettings(_world).periodSeconds;
+        _periodSeconds = VehicleControl.SCAN_TASK.getSchedule().getPeriodSeconds(basePeriodSeconds, population,
+                                                                                 growthPerMinute);
+        _nextCycleMillis = now + (long) (1000 * _periodSeconds);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the next vehicle of the current cycle, clearing its entry in the
+     * snapshot.
+     *
+     * @return the next vehicle, or null if the cycle has been completed.
+     */
+    public Vehicle next() {
+        if (_cursor >= _cycle.size()) {
+            return null;
+        }
+        Vehicle vehicle = _cycle.set(_cursor, null);
+        ++_cursor;
+        return vehicle;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Account for time spent on the current cycle in one tick.
+     *
+     * @param nanos the elapsed time in nanoseconds.
+     */
+    public void addTick(long nanos) {
+        _cycleNanos += nanos;
+        ++_cycleTicks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if every vehicle in the current cycle has been visited.
+     *
+     * @return true if the current cycle is complete.
+     */
+    public boolean isCycleComplete() {
+        return _cursor >= _cycle.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * End the current cycle, recording its duration in the
+     * {@link ScanMetrics}.
+     */
+    public void endCycle() {
+        if (VehicleControl.CONFIG.DEBUG_OVERHEAD) {
+            VehicleControl.PLUGIN.getLogger().info("Scan of " + _cycle.size() + " vehicles in " + _world.getName() +
+                                                   (_deferred > 0 ? " (" + _deferred + " in non-ticking " +
+                                                                    "chunks deferred)"
+                                                                  : "") +
+                                                   " took " + (_cycleNanos * 1e-6) + " milliseconds over " +
+                                                   _cycleTicks + " tick(s); " +
+                                                   VehicleControl.STATE.size() + " tagged vehicles use " +
+                                                   VehicleControl.STATE.getMemoryBytes() + " bytes; " +
+                                                   VehicleControl.MOVEMENT.size() + " sampled positions use " +
+                                                   VehicleControl.MOVEMENT.getMemoryBytes() + " bytes; " +
+                                                   VehicleControl.REMOVALS.size() + " queued for removal; " +
+                                                   "next scan in " + String.format("%.1f", _periodSeconds) +
+                                                   " seconds");
+        }
+        VehicleControl.METRICS.recordScan(_world.getName(), _cycleNanos);
+        _cycle = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the period most recently computed at the start of a cycle.
+     *
+     * @return the scan period in seconds, or 0 if no cycle has started.
+     */
+    public double getPeriodSeconds() {
+        return _periodSeconds;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the vehicle growth rate measured at the start of the most recent
+     * cycle.
+     *
+     * @return the growth rate in vehicles per minute.
+     */
+    public double getGrowthPerMinute() {
+        return _growthPerMinute;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of vehicles in the most recent cycle.
+     *
+     * @return the number of vehicles in the most recent cycle.
+     */
+    public int getPopulation() {
+        return _lastPopulation;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The world.
+     */
+    private final World _world;
+
+    /**
+     * The vehicles to visit in the current cycle, or null if no cycle is in
+     * progress. Visited entries are cleared to null.
+     */
+    private volatile ArrayList<Vehicle> _cycle;
+
+    /**
+     * The number of cycles started, used to decide which cycles include
+     * vehicles in chunks that are not entity ticking.
+     */
+    private long _cycleNumber;
+
+    /**
+     * The number of vehicles left out of the current cycle because their
+     * chunks were not entity ticking.
+     */
+    private int _deferred;
+
+    /**
+     * Index of the next vehicle in _cycle to be visited.
+     */
+    private int _cursor;
+
+    /**
+     * Total elapsed time, in nanoseconds, spent on the current cycle.
+     */
+    private long _cycleNanos;
+
+    /**
+     * Number of ticks over which the current cycle has run.
+     */
+    private int _cycleTicks;
+
+    /**
+     * The system time at which the next cycle should begin.
+     */
+    private volatile long _nextCycleMillis;
+
+    /**
+     * System time at the start of the previous cycle, or 0 if none.
+     */
+    private long _lastCycleMillis;
+
+    /**
+     * Number of vehicles in the most recent cycle.
+     */
+    private volatile int _lastPopulation;
+
+    /**
+     * Vehicle growth rate in vehicles per minute, measured at the start of the
+     * most recent cycle.
+     */
+    private volatile double _growthPerMinute;
+
+    /**
+     * Most recently computed scan period in seconds.
+     */
+    private volatile double _periodSeconds;
+} // class WorldScan
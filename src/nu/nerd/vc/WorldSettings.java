@@ -0,0 +1,98 @@
+package nu.nerd.vc;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * Scan and vehicle settings of one world.
+ *
+ * The settings under worlds.&lt;world&gt; override the corresponding global
+ * settings: period-seconds overrides scan.period-seconds,
+ * break-empty-seconds and break-with-passenger-seconds override the
+ * vehicles.* settings of the same names, and types overrides vehicles.types.
+ * Worlds without a section use the global settings.
+ */
+public class WorldSettings {
+    // ------------------------------------------------------------------------
+    /**
+     * Create the settings of a world.
+     *
+     * @param config       the configuration supplying global settings.
+     * @param worldSection the worlds.&lt;world&gt; section, or null.
+     * @param typesSection the global vehicles.types section, or null.
+     * @return the settings.
+     */
+    public static WorldSettings create(Configuration config, ConfigurationSection worldSection,
+                                       ConfigurationSection typesSection) {
+        if (worldSection == null) {
+            return new WorldSettings(config.SCAN_PERIOD_SECONDS, config.VEHICLES_BREAK_WITH_PASSENGER_SECONDS,
+                                     VehiclePolicy.createTable(config, config.VEHICLES_BREAK_EMPTY_SECONDS,
+                                                               typesSection));
+        } else {
+            int emptySeconds = worldSection.getInt("break-empty-seconds", config.VEHICLES_BREAK_EMPTY_SECONDS);
+            return new WorldSettings(worldSection.getInt("period-seconds", config.SCAN_PERIOD_SECONDS),
+                                     worldSection.getInt("break-with-passenger-seconds",
+                                                         config.VEHICLES_BREAK_WITH_PASSENGER_SECONDS),
+                                     VehiclePolicy.createTable(config, emptySeconds,
+                                                               worldSection.getConfigurationSection("types"),
+                                                               typesSection));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param periodSeconds             the period, in seconds, between scans.
+     * @param breakWithPassengerSeconds the timeout of vehicles with
+     *                                  vulnerable passengers.
+     * @param policies                  the policies indexed by EntityType
+     *                                  ordinal; not modified afterwards.
+     */
+    protected WorldSettings(int periodSeconds, int breakWithPassengerSeconds, VehiclePolicy[] policies) {
+        this.periodSeconds = periodSeconds;
+        this.breakWithPassengerSeconds = breakWithPassengerSeconds;
+        _policies = policies;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the policy of a vehicle type in this world.
+     *
+     * @param type the entity type.
+     * @return the policy, or null if vehicles of that type are not managed.
+     */
+    public VehiclePolicy getPolicy(EntityType type) {
+        return getPolicy(type.ordinal());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the policy of a vehicle type in this world.
+     *
+     * @param typeOrdinal the ordinal of the EntityType.
+     * @return the policy, or null if vehicles of that type are not managed.
+     */
+    public VehiclePolicy getPolicy(int typeOrdinal) {
+        return (typeOrdinal < _policies.length) ? _policies[typeOrdinal] : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The period, in seconds, between scans of the world.
+     */
+    public final int periodSeconds;
+
+    /**
+     * The period, in seconds, after which vehicles with vulnerable passengers
+     * break.
+     */
+    public final int breakWithPassengerSeconds;
+
+    /**
+     * Policies of managed vehicle types, indexed by EntityType ordinal; null
+     * entries are not managed.
+     */
+    private final VehiclePolicy[] _policies;
+} // class WorldSettings
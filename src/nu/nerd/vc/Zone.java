@@ -0,0 +1,188 @@
+package nu.nerd.vc;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+// ----------------------------------------------------------------------------
+/**
+ * A cuboid region of a world, configured under zones.&lt;name&gt;, in which
+ * vehicles are exempt from breaking or have their own timeouts.
+ *
+ * Bounds are block coordinates and inclusive. A vehicle in an exempt zone is
+ * never tagged, and is not broken for being stationary, by density limits or
+ * by timeouts; only the per-player quota still applies. Otherwise, the zone's
+ * timeouts, where set, replace those of the vehicle's type in its world.
+ */
+public class Zone {
+    // ------------------------------------------------------------------------
+    /**
+     * Load a zone from its configuration section.
+     *
+     * @param name    the name of the zone.
+     * @param section the zones.&lt;name&gt; section.
+     * @return the zone, or null if the section is invalid (after logging a
+     *         warning).
+     */
+    public static Zone load(String name, ConfigurationSection section) {
+        String world = section.getString("world");
+        int[] from = parseBlock(section.getString("from"));
+        int[] to = parseBlock(section.getString("to"));
+        if (world == null || from == null || to == null) {
+            Configuration.getLogger().warning("Zone " + name + " needs a world and from and to corners of the " +
+                                              "form x,y,z; ignoring it.");
+            return null;
+        }
+
+        return new Zone(name, world, from, to, section.getBoolean("exempt", false),
+                        section.getInt("break-empty-seconds", -1),
+                        section.getInt("break-with-passenger-seconds", -1));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param name                      the name of the zone.
+     * @param world                     the name of the zone's world.
+     * @param from                      the x, y and z of one corner.
+     * @param to                        the x, y and z of the opposite corner.
+     * @param exempt                    true if vehicles in the zone are
+     *                                  exempt.
+     * @param emptySeconds              the timeout of empty vehicles, or -1.
+     * @param breakWithPassengerSeconds the timeout of vehicles with
+     *                                  breakable passengers, or -1.
+     */
+    public Zone(String name, String world, int[] from, int[] to, boolean exempt, int emptySeconds,
+                int breakWithPassengerSeconds) {
+        this.name = name;
+        this.world = world;
+        minX = Math.min(from[0], to[0]);
+        minY = Math.min(from[1], to[1]);
+        minZ = Math.min(from[2], to[2]);
+        maxX = Math.max(from[0], to[0]);
+        maxY = Math.max(from[1], to[1]);
+        maxZ = Math.max(from[2], to[2]);
+        this.exempt = exempt;
+        this.emptySeconds = emptySeconds;
+        this.breakWithPassengerSeconds = breakWithPassengerSeconds;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse block coordinates of the form "x,y,z".
+     *
+     * @param text the text to parse; may be null.
+     * @return the coordinates as an array of x, y and z, or null if invalid.
+     */
+    public static int[] parseBlock(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        String[] parts = text.split(",");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new int[] { Integer.parseInt(parts[0].trim()),
+                               Integer.parseInt(parts[1].trim()),
+                               Integer.parseInt(parts[2].trim()) };
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the zone contains a block.
+     *
+     * @param x the block X coordinate.
+     * @param y the block Y coordinate.
+     * @param z the block Z coordinate.
+     * @return true if the block is in the zone.
+     */
+    public boolean contains(int x, int y, int z) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of blocks in the zone.
+     *
+     * Where zones overlap, the smallest applies.
+     *
+     * @return the volume of the zone in blocks.
+     */
+    public long getVolume() {
+        return (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return name + ": " + world + " " + minX + "," + minY + "," + minZ + " to " + maxX + "," + maxY + "," + maxZ +
+               (exempt ? ", exempt" : "") +
+               (emptySeconds >= 0 ? ", break-empty-seconds " + emptySeconds : "") +
+               (breakWithPassengerSeconds >= 0 ? ", break-with-passenger-seconds " + breakWithPassengerSeconds : "");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The name of the zone.
+     */
+    public final String name;
+
+    /**
+     * The name of the zone's world.
+     */
+    public final String world;
+
+    /**
+     * The minimum block X coordinate.
+     */
+    public final int minX;
+
+    /**
+     * The minimum block Y coordinate.
+     */
+    public final int minY;
+
+    /**
+     * The minimum block Z coordinate.
+     */
+    public final int minZ;
+
+    /**
+     * The maximum block X coordinate.
+     */
+    public final int maxX;
+
+    /**
+     * The maximum block Y coordinate.
+     */
+    public final int maxY;
+
+    /**
+     * The maximum block Z coordinate.
+     */
+    public final int maxZ;
+
+    /**
+     * If true, vehicles in the zone never break, except by the quota.
+     */
+    public final boolean exempt;
+
+    /**
+     * Seconds after which an empty vehicle in the zone breaks, 0 to never
+     * break, or -1 to use the vehicle's policy.
+     */
+    public final int emptySeconds;
+
+    /**
+     * Seconds after which a vehicle in the zone with a breakable passenger
+     * breaks, or -1 to use the world's setting.
+     */
+    public final int breakWithPassengerSeconds;
+} // class Zone
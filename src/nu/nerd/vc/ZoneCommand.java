@@ -0,0 +1,211 @@
+package nu.nerd.vc;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * Handles the /vehiclecontrol zone subcommands, which list and edit the
+ * {@link Zone}s in config.yml.
+ *
+ * Each edit is saved to config.yml and followed by a reload, so that the zone
+ * indexes are rebuilt in a new configuration snapshot.
+ */
+public class ZoneCommand {
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a zone subcommand.
+     *
+     * @param sender the command sender.
+     * @param args   the command arguments, starting with "zone".
+     * @return true if the arguments were valid; false to show the usage.
+     */
+    public boolean onCommand(CommandSender sender, String[] args) {
+        if (args.length == 2 && args[1].equalsIgnoreCase("list")) {
+            list(sender);
+            return true;
+        } else if ((args.length == 9 || args.length == 10) && args[1].equalsIgnoreCase("add")) {
+            add(sender, args[2], Arrays.copyOfRange(args, 3, 9), (args.length == 10) ? args[9] : null);
+            return true;
+        } else if (args.length == 3 && args[1].equalsIgnoreCase("remove")) {
+            remove(sender, args[2]);
+            return true;
+        } else if (args.length == 5 && args[1].equalsIgnoreCase("set")) {
+            set(sender, args[2], args[3], args[4]);
+            return true;
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * List all zones.
+     *
+     * @param sender the command sender.
+     */
+    protected void list(CommandSender sender) {
+        Configuration config = VehicleControl.CONFIG;
+        sender.sendMessage(ChatColor.GOLD + "Zones (" + config.ZONES.size() + "):");
+        for (Zone zone : config.ZONES.values()) {
+            sender.sendMessage(ChatColor.YELLOW + zone.toString());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add an exempt zone.
+     *
+     * @param sender    the command sender.
+     * @param name      the name of the zone.
+     * @param corners   the coordinates of two opposite corners, x1 y1 z1 x2
+     *                  y2 z2.
+     * @param worldName the name of the world, or null for the sender's world.
+     */
+    protected void add(CommandSender sender, String name, String[] corners, String worldName) {
+        if (!isValidName(sender, name)) {
+            return;
+        }
+        if (VehicleControl.CONFIG.ZONES.containsKey(name)) {
+            sender.sendMessage(ChatColor.RED + "There is already a zone named " + name + ".");
+            return;
+        }
+
+        World world = (worldName != null) ? Bukkit.getWorld(worldName)
+                                          : (sender instanceof Player) ? ((Player) sender).getWorld() : null;
+        if (world == null) {
+            sender.sendMessage(ChatColor.RED + ((worldName != null) ? "There is no world named " + worldName + "."
+                                                                    : "You must specify a world."));
+            return;
+        }
+
+        String from = String.join(",", corners[0], corners[1], corners[2]);
+        String to = String.join(",", corners[3], corners[4], corners[5]);
+        if (Zone.parseBlock(from) == null || Zone.parseBlock(to) == null) {
+            sender.sendMessage(ChatColor.RED + "Corner coordinates must be integers.");
+            return;
+        }
+
+        ConfigurationSection section = VehicleControl.PLUGIN.getConfig().createSection("zones." + name);
+        section.set("world", world.getName());
+        section.set("from", from);
+        section.set("to", to);
+        section.set("exempt", true);
+        save(sender, name);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a zone.
+     *
+     * @param sender the command sender.
+     * @param name   the name of the zone.
+     */
+    protected void remove(CommandSender sender, String name) {
+        if (!exists(sender, name)) {
+            return;
+        }
+        VehicleControl.PLUGIN.getConfig().set("zones." + name, null);
+        save(sender, name);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Change a setting of a zone.
+     *
+     * @param sender  the command sender.
+     * @param name    the name of the zone.
+     * @param setting the setting: one of {@link #SETTINGS}.
+     * @param value   the new value, or "default" to remove a timeout.
+     */
+    protected void set(CommandSender sender, String name, String setting, String value) {
+        if (!exists(sender, name)) {
+            return;
+        }
+
+        String path = "zones." + name + "." + setting.toLowerCase();
+        if (setting.equalsIgnoreCase("exempt")) {
+            if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                sender.sendMessage(ChatColor.RED + "exempt must be true or false.");
+                return;
+            }
+            VehicleControl.PLUGIN.getConfig().set(path, Boolean.parseBoolean(value));
+        } else if (SETTINGS.contains(setting.toLowerCase())) {
+            if (value.equalsIgnoreCase("default")) {
+                VehicleControl.PLUGIN.getConfig().set(path, null);
+            } else {
+                try {
+                    VehicleControl.PLUGIN.getConfig().set(path, Integer.parseInt(value));
+                } catch (NumberFormatException ex) {
+                    sender.sendMessage(ChatColor.RED + setting + " must be an integer or default.");
+                    return;
+                }
+            }
+        } else {
+            sender.sendMessage(ChatColor.RED + "The zone setting must be one of: " + String.join(", ", SETTINGS) + ".");
+            return;
+        }
+        save(sender, name);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save config.yml and reload it to apply a changed zone.
+     *
+     * @param sender the command sender.
+     * @param name   the name of the zone.
+     */
+    protected void save(CommandSender sender, String name) {
+        VehicleControl.PLUGIN.saveConfig();
+        VehicleControl.reloadConfiguration();
+        Zone zone = VehicleControl.CONFIG.ZONES.get(name);
+        sender.sendMessage(ChatColor.GOLD + ((zone != null) ? "Zone " + zone : "Zone " + name + " removed."));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a zone exists, otherwise tell the sender.
+     *
+     * @param sender the command sender.
+     * @param name   the name of the zone.
+     * @return true if the zone exists.
+     */
+    protected boolean exists(CommandSender sender, String name) {
+        if (!VehicleControl.CONFIG.ZONES.containsKey(name)) {
+            sender.sendMessage(ChatColor.RED + "There is no zone named " + name + ".");
+            return false;
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a zone name can be used as a configuration key,
+     * otherwise tell the sender.
+     *
+     * @param sender the command sender.
+     * @param name   the name of the zone.
+     * @return true if the name is valid.
+     */
+    protected boolean isValidName(CommandSender sender, String name) {
+        if (name.isEmpty() || name.contains(".")) {
+            sender.sendMessage(ChatColor.RED + "Zone names must not contain '.'.");
+            return false;
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The settings of a zone that can be changed with /vehiclecontrol zone
+     * set.
+     */
+    protected static final List<String> SETTINGS = Arrays.asList("exempt", "break-empty-seconds",
+                                                                 "break-with-passenger-seconds");
+} // class ZoneCommand
@@ -0,0 +1,197 @@
+package nu.nerd.vc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// ----------------------------------------------------------------------------
+/**
+ * A static, packed R-tree of the {@link Zone}s in one world, built when the
+ * configuration is loaded.
+ *
+ * The zones are ordered by the Sort-Tile-Recursive method: sorted by the X
+ * coordinate of their centres into vertical slices, and each slice sorted by
+ * Z. Consecutive runs of {@link #NODE_SIZE} entries are then grouped into
+ * nodes, level by level, up to a single root. Because the tree is never
+ * modified, node i of a level simply covers entries NODE_SIZE * i to
+ * NODE_SIZE * (i + 1) - 1 of the level below, and only the X-Z bounding
+ * rectangles of each level need be stored, in flat int arrays. Looking up
+ * the zone containing a point visits O(log n) nodes for non-overlapping
+ * zones. The index is immutable and can be queried from any thread.
+ */
+public class ZoneIndex {
+    // ------------------------------------------------------------------------
+    /**
+     * Build the index of a world's zones.
+     *
+     * @param zones the zones, all in the same world.
+     * @return the index.
+     */
+    public static ZoneIndex build(List<Zone> zones) {
+        int count = zones.size();
+        ArrayList<Zone> sorted = new ArrayList<>(zones);
+        sorted.sort(Comparator.comparingLong(zone -> (long) zone.minX + zone.maxX));
+
+        int leaves = (count + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = NODE_SIZE * Math.max(1, (int) Math.ceil(Math.sqrt(leaves)));
+        for (int start = 0; start < count; start += sliceSize) {
+            sorted.subList(start, Math.min(count, start + sliceSize))
+                .sort(Comparator.comparingLong(zone -> (long) zone.minZ + zone.maxZ));
+        }
+        return new ZoneIndex(sorted.toArray(new Zone[count]));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param zones the zones, in Sort-Tile-Recursive order.
+     */
+    protected ZoneIndex(Zone[] zones) {
+        _zones = zones;
+
+        ArrayList<int[][]> levels = new ArrayList<>();
+        int[][] level = new int[4][zones.length];
+        for (int i = 0; i < zones.length; ++i) {
+            level[MIN_X][i] = zones[i].minX;
+            level[MIN_Z][i] = zones[i].minZ;
+            level[MAX_X][i] = zones[i].maxX;
+            level[MAX_Z][i] = zones[i].maxZ;
+        }
+        levels.add(level);
+
+        while (level[MIN_X].length > 1) {
+            int size = level[MIN_X].length;
+            int[][] parent = new int[4][(size + NODE_SIZE - 1) / NODE_SIZE];
+            for (int node = 0; node < parent[MIN_X].length; ++node) {
+                int start = NODE_SIZE * node;
+                int end = Math.min(size, start + NODE_SIZE);
+                parent[MIN_X][node] = Integer.MAX_VALUE;
+                parent[MIN_Z][node] = Integer.MAX_VALUE;
+                parent[MAX_X][node] = Integer.MIN_VALUE;
+                parent[MAX_Z][node] = Integer.MIN_VALUE;
+                for (int i = start; i < end; ++i) {
+                    parent[MIN_X][node] = Math.min(parent[MIN_X][node], level[MIN_X][i]);
+                    parent[MIN_Z][node] = Math.min(parent[MIN_Z][node], level[MIN_Z][i]);
+                    parent[MAX_X][node] = Math.max(parent[MAX_X][node], level[MAX_X][i]);
+                    parent[MAX_Z][node] = Math.max(parent[MAX_Z][node], level[MAX_Z][i]);
+                }
+            }
+            levels.add(parent);
+            level = parent;
+        }
+        _levels = levels.toArray(new int[levels.size()][][]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the zone containing a block; where zones overlap, the smallest.
+     *
+     * @param x the block X coordinate.
+     * @param y the block Y coordinate.
+     * @param z the block Z coordinate.
+     * @return the zone, or null if the block is in no zone.
+     */
+    public Zone find(int x, int y, int z) {
+        if (_zones.length == 0) {
+            return null;
+        }
+        int top = _levels.length - 1;
+        return contains(top, 0, x, z) ? find(top, 0, x, y, z, null) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of zones in the index.
+     *
+     * @return the number of zones.
+     */
+    public int size() {
+        return _zones.length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Search the subtree of an entry whose bounds contain the block.
+     *
+     * @param level the level of the entry; 0 for a zone.
+     * @param entry the index of the entry within its level.
+     * @param x     the block X coordinate.
+     * @param y     the block Y coordinate.
+     * @param z     the block Z coordinate.
+     * @param best  the smallest containing zone found so far, or null.
+     * @return the smallest containing zone found, or null.
+     */
+    protected Zone find(int level, int entry, int x, int y, int z, Zone best) {
+        if (level == 0) {
+            Zone zone = _zones[entry];
+            if (zone.contains(x, y, z) && (best == null || zone.getVolume() < best.getVolume())) {
+                return zone;
+            }
+            return best;
+        }
+
+        int start = NODE_SIZE * entry;
+        int end = Math.min(_levels[level - 1][MIN_X].length, start + NODE_SIZE);
+        for (int child = start; child < end; ++child) {
+            if (contains(level - 1, child, x, z)) {
+                best = find(level - 1, child, x, y, z, best);
+            }
+        }
+        return best;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the X-Z bounds of an entry contain a block.
+     *
+     * @param level the level of the entry.
+     * @param entry the index of the entry within its level.
+     * @param x     the block X coordinate.
+     * @param z     the block Z coordinate.
+     * @return true if the entry's bounds contain the block.
+     */
+    protected boolean contains(int level, int entry, int x, int z) {
+        int[][] bounds = _levels[level];
+        return x >= bounds[MIN_X][entry] && x <= bounds[MAX_X][entry] &&
+               z >= bounds[MIN_Z][entry] && z <= bounds[MAX_Z][entry];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The maximum number of children of a node.
+     */
+    private static final int NODE_SIZE = 8;
+
+    /**
+     * Index of the minimum X bounds in each level.
+     */
+    private static final int MIN_X = 0;
+
+    /**
+     * Index of the minimum Z bounds in each level.
+     */
+    private static final int MIN_Z = 1;
+
+    /**
+     * Index of the maximum X bounds in each level.
+     */
+    private static final int MAX_X = 2;
+
+    /**
+     * Index of the maximum Z bounds in each level.
+     */
+    private static final int MAX_Z = 3;
+
+    /**
+     * The zones, in leaf order.
+     */
+    private final Zone[] _zones;
+
+    /**
+     * The X-Z bounds of the entries of each level, indexed by level (0 for
+     * the zones themselves, the last for the root), then by MIN_X, MIN_Z,
+     * MAX_X or MAX_Z, then by entry.
+     */
+    private final int[][][] _levels;
+} // class ZoneIndex